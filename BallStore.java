@@ -0,0 +1,205 @@
+/* BallStore holds the balls of a chaos mode match, which can have thousands.
+
+Instead of one object per ball, each thing about a ball is kept in its own array
+(x[i], y[i], vx[i] and vy[i] are ball i), so moving every ball is a loop over a
+few arrays of doubles with no objects to follow.
+
+Balls also bounce off each other. Checking every pair of balls would take
+n * n / 2 checks, so first every ball is sorted into a grid of cells as big as a
+ball ("broad phase"). Two balls can only touch if they are in the same cell or
+next to each other, so each ball is only checked against the few balls around it,
+and a tick takes about as long as the number of balls. The arrays themselves are
+put in the order of the cells, so balls that are close together on the screen
+are also close together in memory, which keeps the checks fast with many balls.
+Because of that, a ball's index changes from tick to tick.
+*/
+public class BallStore {
+
+    public final int d; // diameter of every ball
+    public int count;
+    // ball i has its top left corner at (x[i], y[i]) and moves (vx[i], vy[i]) per tick
+    public double[] x;
+    public double[] y;
+    public double[] vx;
+    public double[] vy;
+
+    // the grid, worked out by sortIntoCells()
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;
+    private int[] cellBalls; // ball indexes in the order of their cells
+    private int[] ballCells; // the cell each ball is in
+    // the arrays are sorted into these, then swapped with them
+    private double[] sortedX = new double[0];
+    private double[] sortedY = new double[0];
+    private double[] sortedVx = new double[0];
+    private double[] sortedVy = new double[0];
+    private int[] sortedCells;
+
+    public BallStore(int d, int capacity) {
+        this.d = d;
+        x = new double[capacity];
+        y = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+        columns = (GameState.W + d - 1) / d;
+        rows = (GameState.H + d - 1) / d;
+        cellStart = new int[columns * rows + 1];
+        cellBalls = new int[capacity];
+        ballCells = new int[capacity];
+        sortedCells = new int[capacity];
+    }
+
+    // Adds a ball and returns its index
+    public int add(double x, double y, double vx, double vy) {
+        if (count == this.x.length) {
+            int capacity = Math.max(16, count * 2);
+            this.x = java.util.Arrays.copyOf(this.x, capacity);
+            this.y = java.util.Arrays.copyOf(this.y, capacity);
+            this.vx = java.util.Arrays.copyOf(this.vx, capacity);
+            this.vy = java.util.Arrays.copyOf(this.vy, capacity);
+            cellBalls = new int[capacity];
+            ballCells = new int[capacity];
+            sortedCells = new int[capacity];
+        }
+        this.x[count] = x;
+        this.y[count] = y;
+        this.vx[count] = vx;
+        this.vy[count] = vy;
+        return count++;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    // Moves every ball one tick, bouncing them off the top and bottom. Doesn't know
+    // about paddles or goals; GameState handles those. Returns the number of bounces.
+    public int move() {
+        double bottom = GameState.H - d;
+        int bounces = 0;
+        for (int i = 0; i < count; i++) {
+            x[i] += vx[i];
+            double newY = y[i] + vy[i];
+            if (newY < 0) {
+                newY = -newY;
+                vy[i] = -vy[i];
+                bounces++;
+            } else if (newY > bottom) {
+                newY = 2 * bottom - newY;
+                vy[i] = -vy[i];
+                bounces++;
+            }
+            y[i] = newY;
+        }
+        return bounces;
+    }
+
+    // Bounces every pair of balls that touch and are moving towards each other off
+    // each other. Returns the number of bounces.
+    public int collide() {
+        sortIntoCells();
+        int bounces = 0;
+        // go through the balls cell by cell, so empty cells cost nothing. The balls are
+        // now in cell order, so ball i is the i-th ball in the grid, and the balls of
+        // cells next to each other in a row are next to each other in the arrays.
+        for (int i = 0; i < count; i++) {
+            int cell = ballCells[i];
+            int column = cell % columns;
+            int row = cell / columns;
+            // The rest of this cell and the cell to the right, then the three cells
+            // below. The cells to the left and above have already checked this one.
+            int right = column + 1 < columns ? cell + 1 : cell;
+            for (int j = i + 1; j < cellStart[right + 1]; j++)
+                bounces += bounce(i, j);
+            if (row + 1 < rows) {
+                int below = cell + columns;
+                int start = cellStart[column > 0 ? below - 1 : below];
+                int end = cellStart[(column + 1 < columns ? below + 1 : below) + 1];
+                for (int j = start; j < end; j++)
+                    bounces += bounce(i, j);
+            }
+        }
+        return bounces;
+    }
+
+    // If balls i and j touch and are moving towards each other, bounces them (like
+    // two billiard balls of the same weight) and returns 1. Otherwise returns 0.
+    private int bounce(int i, int j) {
+        double dx = x[j] - x[i];
+        double dy = y[j] - y[i];
+        double distance2 = dx * dx + dy * dy;
+        if (distance2 >= d * d || distance2 == 0)
+            return 0;
+        double dvx = vx[i] - vx[j];
+        double dvy = vy[i] - vy[j];
+        double approach = dvx * dx + dvy * dy; // > 0 if they are getting closer
+        if (approach <= 0)
+            return 0;
+        // swap the parts of their velocities that point along the line between them
+        double k = approach / distance2;
+        vx[i] -= k * dx;
+        vy[i] -= k * dy;
+        vx[j] += k * dx;
+        vy[j] += k * dy;
+        return 1;
+    }
+
+    // Sorts the balls into the grid with a counting sort: count the balls in each
+    // cell, work out where each cell's balls start, then put each ball in its place.
+    // Afterwards the balls in cell c are balls cellStart[c] to cellStart[c + 1] - 1.
+    private void sortIntoCells() {
+        java.util.Arrays.fill(cellStart, 0);
+        double half = d / 2.0;
+        double perCell = 1.0 / d;
+        for (int i = 0; i < count; i++) {
+            // the cell of the ball's center
+            int column = Math.max(0, Math.min(columns - 1, (int) ((x[i] + half) * perCell)));
+            int row = Math.max(0, Math.min(rows - 1, (int) ((y[i] + half) * perCell)));
+            int cell = row * columns + column;
+            ballCells[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        for (int c = 1; c < cellStart.length; c++)
+            cellStart[c] += cellStart[c - 1];
+        // fill each cell from its end backwards, leaving cellStart pointing at the start
+        for (int i = count - 1; i >= 0; i--) {
+            int cell = ballCells[i] + 1;
+            cellBalls[--cellStart[cell]] = i;
+        }
+        // cellStart[c + 1] now holds the start of cell c; shift everything back by one
+        System.arraycopy(cellStart, 1, cellStart, 0, cellStart.length - 1);
+        cellStart[cellStart.length - 1] = count;
+
+        // put the arrays in that order
+        if (sortedX.length != x.length) {
+            sortedX = new double[x.length];
+            sortedY = new double[x.length];
+            sortedVx = new double[x.length];
+            sortedVy = new double[x.length];
+        }
+        for (int a = 0; a < count; a++) {
+            int i = cellBalls[a];
+            sortedX[a] = x[i];
+            sortedY[a] = y[i];
+            sortedVx[a] = vx[i];
+            sortedVy[a] = vy[i];
+            sortedCells[a] = ballCells[i];
+        }
+        int[] swapCells = ballCells;
+        ballCells = sortedCells;
+        sortedCells = swapCells;
+        double[] swap = x;
+        x = sortedX;
+        sortedX = swap;
+        swap = y;
+        y = sortedY;
+        sortedY = swap;
+        swap = vx;
+        vx = sortedVx;
+        sortedVx = swap;
+        swap = vy;
+        vy = sortedVy;
+        sortedVy = swap;
+    }
+}
@@ -0,0 +1,198 @@
+/* BatchRunner plays many matches against the computer paddle without a window, to
+tune how well the computer paddle plays.
+
+The player paddle is played by a simple bot that follows the ball. Matches are
+spread over all CPU cores with a parallel stream, and each thread adds its results
+to its own Results object which are merged at the end, so the threads never wait
+for each other.
+
+Run with: java BatchRunner [matches=20000] [normalError=20] [challengeError=0]
+          [normalReactionX=250] [challengeReactionX=166] [playerError=20]
+          [maxSeconds=600] [seed=1] [ai=heuristic|predictive] [predictionError=0]
+          [scaling=false]
+
+Match number i is played with seed + i, so a batch run with the same settings
+always gives the same results.
+*/
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+public class BatchRunner {
+
+    // Settings for a batch of matches
+    static class Settings {
+        int normalError = 20;
+        int challengeError = 0;
+        int normalReactionX = GameState.W / 2;
+        int challengeReactionX = GameState.W / 3;
+        int playerError = 20; // how sloppy the player bot is, like GameState.normalError
+        int maxTicks = 600 * GameState.TICKS_PER_SECOND; // matches still going after this are stopped
+        long seed = 1; // seed of the first match
+        boolean predictive; // use PredictiveAi for the computer paddle
+        double predictionError;
+    }
+
+    // Results of a batch of matches.
+    static class Results {
+        static final int RALLY_BUCKETS = 32; // rally lengths (paddle hits per point) 0 to 31+
+        static final int SURVIVAL_BUCKET_SECONDS = 10; // challenge survival times in 10s buckets
+        static final int SURVIVAL_BUCKETS = 61;
+
+        long normalMatches;
+        long playerWins;
+        long computerWins;
+        long challengeMatches;
+        long challengeTimeouts; // challenge matches the player survived until maxTicks
+        long ticks;
+        final long[] rallyLengths = new long[RALLY_BUCKETS];
+        final long[] survivalTimes = new long[SURVIVAL_BUCKETS];
+
+        void merge(Results other) {
+            normalMatches += other.normalMatches;
+            playerWins += other.playerWins;
+            computerWins += other.computerWins;
+            challengeMatches += other.challengeMatches;
+            challengeTimeouts += other.challengeTimeouts;
+            ticks += other.ticks;
+            for (int i = 0; i < RALLY_BUCKETS; i++)
+                rallyLengths[i] += other.rallyLengths[i];
+            for (int i = 0; i < SURVIVAL_BUCKETS; i++)
+                survivalTimes[i] += other.survivalTimes[i];
+        }
+    }
+
+    // Plays match number `match` and adds what happened to `results`. Even matches
+    // are played in normal mode and odd matches in challenge mode.
+    static void playMatch(int match, Settings settings, Results results) {
+        GameState state = new GameState(settings.seed + match);
+        state.normalError = settings.normalError;
+        state.challengeError = settings.challengeError;
+        state.normalReactionX = settings.normalReactionX;
+        state.challengeReactionX = settings.challengeReactionX;
+        if (settings.predictive)
+            state.computerAi = new PredictiveAi(settings.predictionError);
+
+        boolean isChallenge = match % 2 == 1;
+        if (isChallenge)
+            state.startChallenge();
+        else
+            state.startNormal();
+
+        // The player bot plays like the computer paddle does in normal mode
+        HeuristicController playerBot = new HeuristicController(settings.playerError, GameState.W / 2);
+        int rally = 0;
+        int ticks = 0;
+        while (state.isPlaying && ticks < settings.maxTicks) {
+            int events = state.step(Integer.signum(playerBot.velocity(state, false)));
+            ticks++;
+            if ((events & GameState.PADDLE_HIT) != 0)
+                rally++;
+            if ((events & (GameState.PLAYER_SCORED | GameState.COMPUTER_SCORED)) != 0) {
+                results.rallyLengths[Math.min(rally, Results.RALLY_BUCKETS - 1)]++;
+                rally = 0;
+            }
+            if ((events & GameState.PLAYER_WINS) != 0)
+                results.playerWins++;
+            if ((events & GameState.COMPUTER_WINS) != 0)
+                results.computerWins++;
+        }
+        results.ticks += ticks;
+
+        if (isChallenge) {
+            results.challengeMatches++;
+            if (state.isPlaying)
+                results.challengeTimeouts++;
+            int bucket = (int) (state.getElapsedSeconds() / Results.SURVIVAL_BUCKET_SECONDS);
+            results.survivalTimes[Math.min(bucket, Results.SURVIVAL_BUCKETS - 1)]++;
+        } else {
+            results.normalMatches++;
+        }
+    }
+
+    // Plays `matches` matches on `threads` threads and returns the results.
+    static Results run(int matches, int threads, Settings settings) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(() -> IntStream.range(0, matches).parallel().collect(Results::new,
+                    (results, match) -> playMatch(match, settings, results), Results::merge)).get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        HashMap<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            options.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "true");
+        }
+        int matches = Integer.parseInt(options.getOrDefault("matches", "20000"));
+        Settings settings = new Settings();
+        settings.normalError = Integer.parseInt(options.getOrDefault("normalError", "" + settings.normalError));
+        settings.challengeError = Integer
+                .parseInt(options.getOrDefault("challengeError", "" + settings.challengeError));
+        settings.normalReactionX = Integer
+                .parseInt(options.getOrDefault("normalReactionX", "" + settings.normalReactionX));
+        settings.challengeReactionX = Integer
+                .parseInt(options.getOrDefault("challengeReactionX", "" + settings.challengeReactionX));
+        settings.playerError = Integer.parseInt(options.getOrDefault("playerError", "" + settings.playerError));
+        settings.maxTicks = Integer.parseInt(options.getOrDefault("maxSeconds", "600")) * GameState.TICKS_PER_SECOND;
+        settings.seed = Long.parseLong(options.getOrDefault("seed", "" + settings.seed));
+        settings.predictive = options.getOrDefault("ai", "heuristic").equals("predictive");
+        settings.predictionError = Double.parseDouble(options.getOrDefault("predictionError", "0"));
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        run(Math.min(matches, 1000), cores, settings); // warm up the JIT before timing anything
+
+        if (Boolean.parseBoolean(options.getOrDefault("scaling", "false"))) {
+            // How much faster is it with more threads? Ideally twice the threads is twice as fast.
+            double oneThread = 0;
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                long start = System.nanoTime();
+                run(matches, threads, settings);
+                double matchesPerSecond = matches / ((System.nanoTime() - start) / 1e9);
+                if (threads == 1)
+                    oneThread = matchesPerSecond;
+                System.out.printf("%2d threads: %,.0f matches/s (%.2fx)%n", threads, matchesPerSecond,
+                        matchesPerSecond / oneThread);
+            }
+        }
+
+        long start = System.nanoTime();
+        Results results = run(matches, cores, settings);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        print(results, matches, cores, seconds);
+    }
+
+    static void print(Results results, int matches, int cores, double seconds) {
+        System.out.printf("%,d matches on %d cores in %.2f s: %,.0f matches/s, %,.0f ticks/s%n", matches, cores,
+                seconds, matches / seconds, results.ticks / seconds);
+
+        long finished = results.playerWins + results.computerWins;
+        System.out.printf("normal mode: %,d matches, computer win rate %.1f%% (%,d unfinished)%n",
+                results.normalMatches, finished == 0 ? 0 : 100.0 * results.computerWins / finished,
+                results.normalMatches - finished);
+
+        System.out.println("rally length (paddle hits per point):");
+        printHistogram(results.rallyLengths, 1, "");
+        System.out.printf("challenge mode: %,d matches, %,d survived the time limit%n", results.challengeMatches,
+                results.challengeTimeouts);
+        System.out.println("challenge survival time (seconds):");
+        printHistogram(results.survivalTimes, Results.SURVIVAL_BUCKET_SECONDS, "s");
+    }
+
+    // prints the non-empty buckets of a histogram with a bar for each
+    static void printHistogram(long[] buckets, int bucketSize, String unit) {
+        long total = 0;
+        for (long count : buckets)
+            total += count;
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] == 0)
+                continue;
+            String label = (i * bucketSize) + unit + (i == buckets.length - 1 ? "+" : "");
+            double percent = 100.0 * buckets[i] / total;
+            System.out.printf("  %6s %9d %5.1f%% %s%n", label, buckets[i], percent, "#".repeat((int) (percent / 2)));
+        }
+    }
+}
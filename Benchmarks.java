@@ -0,0 +1,247 @@
+/* Benchmarks measures the code that runs every tick and every frame, so changes
+that make it slower (or make it allocate memory) are caught before they ship.
+
+For each benchmark it runs warm-up rounds (so the JIT compiler has finished
+optimizing), then measured rounds, and reports the average time per operation and
+the bytes allocated per operation on the benchmark thread.
+
+Run with: java -Djava.awt.headless=true Benchmarks [filter] [save=<file>] [baseline=<file>]
+  filter    only run benchmarks whose name contains this
+  save      write the results to a file
+  baseline  compare with results saved earlier; exits with status 1 if anything
+            got more than 15% slower or started allocating
+*/
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class Benchmarks {
+
+    static final int WARMUP_ROUNDS = 5;
+    static final int MEASURED_ROUNDS = 10;
+    static final long ROUND_NS = 200_000_000; // how long each round runs for
+    static final double ALLOWED_SLOWDOWN = 1.15;
+    static final int AI_TICKS = 4096; // ticks the ai decision benchmarks go round (a power of 2)
+
+    // A benchmark runs one operation per call to run()
+    interface Benchmark {
+        void run();
+    }
+
+    // Result of one benchmark
+    static class Result {
+        final String name;
+        final double nsPerOp;
+        final double bytesPerOp;
+
+        Result(String name, double nsPerOp, double bytesPerOp) {
+            this.name = name;
+            this.nsPerOp = nsPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+
+    // results of benchmarks are added here so the JIT can't skip work that looks unused
+    static volatile long sink;
+
+    public static void main(String[] args) throws IOException {
+        String filter = "";
+        Path save = null;
+        Path baseline = null;
+        for (String arg : args) {
+            if (arg.startsWith("save="))
+                save = Path.of(arg.substring(5));
+            else if (arg.startsWith("baseline="))
+                baseline = Path.of(arg.substring(9));
+            else
+                filter = arg;
+        }
+
+        ArrayList<Result> results = new ArrayList<>();
+        for (String name : new String[] { "physics tick", "physics tick (speed ramp)", "physics tick (fixed point)",
+                "heuristic ai decision", "predictive ai decision", "draw frame (playing)", "draw frame (home screen)",
+                "draw frame (challenge instructions)", "chaos tick (1 ball)", "chaos tick (10 balls)",
+                "chaos tick (100 balls)", "chaos tick (1000 balls)", "chaos tick (10000 balls)",
+                "env step (1024 envs)" }) {
+            if (name.contains(filter))
+                results.add(measure(name, create(name)));
+        }
+
+        if (save != null) {
+            StringBuilder out = new StringBuilder();
+            for (Result result : results)
+                out.append(result.name).append('\t').append(result.nsPerOp).append('\t').append(result.bytesPerOp)
+                        .append('\n');
+            Files.writeString(save, out);
+        }
+        if (baseline != null && !compare(results, Files.readAllLines(baseline)))
+            System.exit(1);
+    }
+
+    // Sets up the benchmark with the given name
+    static Benchmark create(String name) {
+        if (name.startsWith("physics tick")) {
+            // A match between two bots, restarted whenever it ends
+            GameState state = new GameState(1);
+            state.speedRamp = name.contains("speed ramp");
+            state.fixedPoint = name.contains("fixed point");
+            HeuristicController left = new HeuristicController(20, GameState.W / 2);
+            return () -> {
+                if (!state.isPlaying)
+                    state.startNormal();
+                sink += state.step(Integer.signum(left.velocity(state, false)));
+            };
+        }
+        if (name.startsWith("chaos tick")) {
+            // A chaos mode match with the number of balls in the name, restarted
+            // whenever it ends
+            int balls = Integer.parseInt(name.replaceAll("\\D", ""));
+            GameState state = new GameState(1);
+            state.startChaos(balls);
+            return () -> {
+                if (!state.isPlaying)
+                    state.startChaos(balls);
+                sink += state.step(GameState.NONE);
+            };
+        }
+        if (name.startsWith("env step")) {
+            // One step of a batch of environments on this thread, with random actions
+            PongEnv env = new PongEnv(Integer.parseInt(name.replaceAll("\\D", "")), 1);
+            env.reset(1);
+            int[] actions = new int[env.count];
+            MatchRandom random = new MatchRandom(1);
+            return () -> {
+                for (int i = 0; i < actions.length; i++)
+                    actions[i] = (int) ((random.nextLong() >>> 1) % 3) - 1;
+                env.step(actions);
+                sink += env.observations[0] > 0 ? 1 : 0;
+            };
+        }
+        if (name.endsWith("ai decision")) {
+            // The decision on its own, with the ball moving around so the decision changes.
+            // The ticks are played before the benchmark starts, so playing them isn't
+            // part of the time: each operation decides on the next one of them.
+            GameState[] ticks = playedTicks(AI_TICKS);
+            PaddleController ai = name.startsWith("predictive") ? new PredictiveAi(0)
+                    : new HeuristicController(0, GameState.W / 3);
+            int[] next = { 0 };
+            return () -> {
+                sink += ai.velocity(ticks[next[0]], true);
+                next[0] = (next[0] + 1) & (AI_TICKS - 1);
+            };
+        }
+
+        // Drawing a frame into an off screen image, like GamePanel.paint() does (so only
+        // what changed since the last frame is drawn)
+        GameState state = playingState();
+        GamePanel panel = new GamePanel(state);
+        if (name.contains("playing"))
+            panel.screen.hide();
+        else if (name.contains("instructions"))
+            panel.screen.isInstructions = true;
+        BufferedImage image = new BufferedImage(GameState.W, GameState.H, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        return () -> {
+            state.step(GameState.NONE);
+            // like the game thread does after every tick, so the frame is interpolated
+            panel.frames.publish(state, false, System.nanoTime(), 1_000_000_000 / GameState.TICKS_PER_SECOND);
+            panel.draw(g);
+            sink += image.getRGB(0, 0);
+        };
+    }
+
+    // Returns a normal mode match that is under way (past the pause at the start)
+    static GameState playingState() {
+        GameState state = new GameState(1);
+        state.startNormal();
+        for (int i = 0; i < GameState.SLEEP_TICKS + 10; i++)
+            state.step(GameState.NONE);
+        return state;
+    }
+
+    // Returns `count` consecutive ticks of normal mode matches with nobody moving the
+    // paddles, restarted whenever one ends
+    static GameState[] playedTicks(int count) {
+        GameState state = playingState();
+        ByteBuffer buffer = ByteBuffer.allocate(GameState.SAVED_SIZE);
+        GameState[] ticks = new GameState[count];
+        for (int i = 0; i < count; i++) {
+            if (!state.isPlaying)
+                state.startNormal();
+            buffer.clear();
+            state.writeTo(buffer);
+            buffer.flip();
+            ticks[i] = new GameState(1);
+            ticks[i].readFrom(buffer);
+            state.step(GameState.NONE, GameState.NONE);
+        }
+        return ticks;
+    }
+
+    static Result measure(String name, Benchmark benchmark) {
+        long ops = 0;
+        long ns = 0;
+        long bytes = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long roundOps = 0;
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            long end = start + ROUND_NS;
+            long now;
+            do {
+                // check the time every 64 operations so checking it doesn't dominate
+                for (int i = 0; i < 64; i++)
+                    benchmark.run();
+                roundOps += 64;
+            } while ((now = System.nanoTime()) < end);
+            long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+            if (round >= WARMUP_ROUNDS) {
+                ops += roundOps;
+                ns += now - start;
+                bytes += allocated;
+            }
+        }
+        Result result = new Result(name, (double) ns / ops, (double) bytes / ops);
+        System.out.printf("%-36s %12.1f ns/op %,14.0f ops/s %10.1f B/op%n", name, result.nsPerOp, 1e9 / result.nsPerOp,
+                result.bytesPerOp);
+        return result;
+    }
+
+    // Compares results with lines saved by an earlier run. Returns false if there is a
+    // regression.
+    static boolean compare(List<Result> results, List<String> baselineLines) {
+        HashMap<String, double[]> baseline = new HashMap<>();
+        for (String line : baselineLines) {
+            String[] parts = line.split("\t");
+            baseline.put(parts[0], new double[] { Double.parseDouble(parts[1]), Double.parseDouble(parts[2]) });
+        }
+
+        boolean ok = true;
+        for (Result result : results) {
+            double[] before = baseline.get(result.name);
+            if (before == null)
+                continue;
+            // a few bytes per op can come from the measuring itself, so only flag real allocation
+            boolean slower = result.nsPerOp > before[0] * ALLOWED_SLOWDOWN;
+            boolean allocates = result.bytesPerOp > before[1] + 1;
+            if (slower || allocates) {
+                ok = false;
+                System.out.printf("REGRESSION %s: %.1f -> %.1f ns/op, %.1f -> %.1f B/op%n", result.name, before[0],
+                        result.nsPerOp, before[1], result.bytesPerOp);
+            }
+        }
+        System.out.println(ok ? "no regressions against the baseline" : "regressions found");
+        return ok;
+    }
+}
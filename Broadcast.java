@@ -0,0 +1,201 @@
+/* Broadcast sends a match to any number of spectators over TCP.
+
+Every tick the game thread calls publish(), which turns the state into a Snapshot
+record (the difference from the last tick, with a whole snapshot every
+KEYFRAME_TICKS ticks) and appends it to a ring buffer shared by all spectators.
+Each record is made once, however many spectators there are.
+
+A separate fan-out thread accepts spectators and writes the new part of the ring
+to each of them. It writes straight from the ring (through a view of it that every
+spectator keeps), so sending to a spectator copies nothing and allocates nothing;
+a spectator is just the stream position it has got up to. A new spectator starts
+at the last keyframe. A spectator too slow to keep up, whose position falls more
+than RING_BYTES - MARGIN_BYTES behind, is disconnected, since the ring is about to
+overwrite what it hasn't received yet.
+
+Run the game with -Dpong.broadcastPort=<port> to broadcast it. BroadcastCheck
+measures how well this scales.
+*/
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Broadcast implements Closeable {
+
+    public static final int KEYFRAME_TICKS = GameState.TICKS_PER_SECOND;
+    public static final int RING_BYTES = 1 << 16;
+    private static final int MARGIN_BYTES = 1 << 14; // never send from this close to being overwritten
+
+    private final ByteBuffer ring = ByteBuffer.allocateDirect(RING_BYTES);
+    private final ByteBuffer record = ByteBuffer.allocate(Snapshot.MAX_SIZE); // the record being made
+    private final Snapshot current = new Snapshot();
+    private final Snapshot previous = new Snapshot();
+    private long tick;
+    // stream positions: the end of the last record and the start of the last keyframe.
+    // The ring holds the stream from written - RING_BYTES to written.
+    private volatile long written;
+    private volatile long keyframeStart;
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ArrayList<Spectator> spectators = new ArrayList<>(); // only used by the fan-out thread
+    private final Thread thread;
+    private volatile boolean isClosed;
+
+    // measurements
+    public final Histogram recordBytes = new Histogram(); // size of each record
+    public final AtomicLong bytesSent = new AtomicLong(); // to all spectators together
+    public final Histogram fanOutNs = new Histogram(); // time to send new records to every spectator
+    public final AtomicLong dropped = new AtomicLong(); // spectators disconnected for being too slow
+    public volatile int spectatorCount;
+
+    // one spectator, and how much of the stream it has been sent
+    private static class Spectator {
+        final SocketChannel channel;
+        final ByteBuffer view; // the ring, with its own position and limit
+        final SelectionKey key;
+        long sent;
+
+        Spectator(SocketChannel channel, ByteBuffer view, SelectionKey key, long sent) {
+            this.channel = channel;
+            this.view = view;
+            this.key = key;
+            this.sent = sent;
+        }
+    }
+
+    // Starts broadcasting to spectators that connect to `port` (0 for any free port)
+    public Broadcast(int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this::fanOut, "broadcast");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    // Adds the state of the match after this tick to the broadcast. Only called by
+    // one thread (the game thread).
+    public void publish(GameState state) {
+        current.copyFrom(state, tick);
+        boolean isKeyframe = tick % KEYFRAME_TICKS == 0;
+        record.clear();
+        current.writeTo(record, isKeyframe ? null : previous);
+        record.flip();
+        recordBytes.record(record.remaining());
+
+        // copy the record into the ring, in two pieces if it goes past the end
+        long start = written;
+        int at = (int) (start % RING_BYTES);
+        int first = Math.min(record.remaining(), RING_BYTES - at);
+        for (int i = 0; i < first; i++)
+            ring.put(at + i, record.get(i));
+        for (int i = first; i < record.limit(); i++)
+            ring.put(i - first, record.get(i));
+        if (isKeyframe)
+            keyframeStart = start;
+        written = start + record.limit(); // makes the record visible to the fan-out thread
+
+        previous.copyFrom(current);
+        tick++;
+        selector.wakeup();
+    }
+
+    // The fan-out thread: accepts spectators and sends them what was published
+    private void fanOut() {
+        try {
+            while (!isClosed) {
+                selector.select();
+                if (selector.selectedKeys().remove(server.keyFor(selector)))
+                    accept();
+                selector.selectedKeys().clear();
+                long end = written;
+                long start = System.nanoTime();
+                for (int i = spectators.size() - 1; i >= 0; i--)
+                    send(i, end);
+                if (!spectators.isEmpty())
+                    fanOutNs.record(System.nanoTime() - start);
+                spectatorCount = spectators.size();
+            }
+        } catch (IOException e) {
+            if (!isClosed)
+                System.err.println("Broadcast stopped: " + e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, 0);
+            spectators.add(new Spectator(channel, ring.duplicate(), key, keyframeStart));
+        }
+    }
+
+    // sends spectator i everything up to stream position `end` that fits in its socket
+    private void send(int i, long end) {
+        Spectator spectator = spectators.get(i);
+        try {
+            if (end - spectator.sent > RING_BYTES - MARGIN_BYTES) {
+                dropped.incrementAndGet();
+                remove(i);
+                return;
+            }
+            while (spectator.sent < end) {
+                int at = (int) (spectator.sent % RING_BYTES);
+                int length = (int) Math.min(end - spectator.sent, RING_BYTES - at);
+                spectator.view.clear().position(at).limit(at + length);
+                int sent = spectator.channel.write(spectator.view);
+                spectator.sent += sent;
+                bytesSent.addAndGet(sent);
+                if (sent < length)
+                    break; // its socket is full
+            }
+            // wake up when the socket has room again, if not everything fit
+            int ops = spectator.sent < end ? SelectionKey.OP_WRITE : 0;
+            if (spectator.key.interestOps() != ops)
+                spectator.key.interestOps(ops);
+        } catch (IOException e) {
+            remove(i); // the spectator went away
+        }
+    }
+
+    private void remove(int i) {
+        Spectator spectator = spectators.get(i);
+        spectators.set(i, spectators.get(spectators.size() - 1));
+        spectators.remove(spectators.size() - 1);
+        try {
+            spectator.channel.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    public void close() throws IOException {
+        isClosed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Spectator spectator : spectators)
+            spectator.channel.close();
+        server.close();
+        selector.close();
+    }
+}
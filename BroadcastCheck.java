@@ -0,0 +1,126 @@
+/* BroadcastCheck is a load test for Broadcast.
+
+A bot match is played at 60 ticks per second and broadcast, and thousands of
+spectators connect to it over the loopback address, all read by one thread with a
+Selector. Every snapshot a spectator decodes is compared with what was published,
+and the time from publishing to decoding is the fan-out latency.
+
+Run with: java BroadcastCheck [spectators=2000] [seconds=10]
+Exits with status 1 if a spectator ever decoded something that wasn't published.
+*/
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class BroadcastCheck {
+
+    static final int HISTORY = 1 << 12; // ticks of published snapshots kept to compare with
+
+    // what was published on every tick (tick % HISTORY), and when
+    static final int[][] published = new int[HISTORY][Snapshot.VALUES];
+    static final AtomicLongArray publishedNs = new AtomicLongArray(HISTORY);
+    static volatile boolean isDone;
+
+    public static void main(String[] args) throws Exception {
+        HashMap<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            options.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "true");
+        }
+        int spectatorCount = Integer.parseInt(options.getOrDefault("spectators", "2000"));
+        double seconds = Double.parseDouble(options.getOrDefault("seconds", "10"));
+
+        Broadcast broadcast = new Broadcast(0);
+        Thread match = new Thread(() -> playMatch(broadcast, seconds));
+        match.start();
+
+        // connect the spectators
+        Selector selector = Selector.open();
+        for (int i = 0; i < spectatorCount; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", broadcast.getPort()));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Viewer());
+        }
+
+        Histogram latencyNs = new Histogram();
+        long snapshots = 0;
+        long mismatches = 0;
+        Snapshot expected = new Snapshot();
+        while (!isDone) {
+            selector.select(100);
+            for (SelectionKey key : selector.selectedKeys()) {
+                Viewer viewer = (Viewer) key.attachment();
+                if (((SocketChannel) key.channel()).read(viewer.in) < 0) {
+                    key.cancel();
+                    continue;
+                }
+                viewer.in.flip();
+                while (viewer.snapshot.readFrom(viewer.in)) {
+                    long tick = viewer.snapshot.tick;
+                    if (tick < 0)
+                        continue; // waiting for a keyframe
+                    long ns = publishedNs.get((int) (tick % HISTORY));
+                    if (ns > viewer.connectedNs) // (the keyframe it started from is older)
+                        latencyNs.record(System.nanoTime() - ns);
+                    expected.tick = tick;
+                    System.arraycopy(published[(int) (tick % HISTORY)], 0, expected.values, 0, Snapshot.VALUES);
+                    if (!expected.equals(viewer.snapshot))
+                        mismatches++;
+                    snapshots++;
+                }
+                viewer.in.compact();
+            }
+            selector.selectedKeys().clear();
+        }
+        match.join();
+
+        Histogram bytes = broadcast.recordBytes;
+        long ticks = bytes.count();
+        System.out.printf("%d spectators (%d still connected, %d dropped), %d ticks%n", spectatorCount,
+                broadcast.spectatorCount, broadcast.dropped.get(), ticks);
+        System.out.printf("record size: mean %.1f B  p50 %d B  max %d B (keyframes every %d ticks)%n", bytes.mean(),
+                bytes.percentile(50), bytes.max(), Broadcast.KEYFRAME_TICKS);
+        System.out.printf("sent %.0f B per tick to all spectators, %.1f KB/s%n",
+                (double) broadcast.bytesSent.get() / ticks, broadcast.bytesSent.get() / seconds / 1e3);
+        System.out.printf("sending to every spectator: p50 %.0f us  p99 %.0f us%n",
+                broadcast.fanOutNs.percentile(50) / 1e3, broadcast.fanOutNs.percentile(99) / 1e3);
+        System.out.printf("fan-out latency: p50 %.0f us  p99 %.0f us  max %.0f us, %d snapshots decoded%n",
+                latencyNs.percentile(50) / 1e3, latencyNs.percentile(99) / 1e3, latencyNs.max() / 1e3, snapshots);
+        System.out.println(mismatches == 0 ? "every snapshot matched" : mismatches + " SNAPSHOTS DIDN'T MATCH");
+        broadcast.close();
+        if (mismatches != 0)
+            System.exit(1);
+    }
+
+    // one spectator's side of the connection
+    static class Viewer {
+        final ByteBuffer in = ByteBuffer.allocate(4096);
+        final Snapshot snapshot = new Snapshot();
+        final long connectedNs = System.nanoTime();
+    }
+
+    // plays a match between two bots, publishing every tick
+    static void playMatch(Broadcast broadcast, double seconds) {
+        GameState state = new GameState(1);
+        HeuristicController bot = new HeuristicController(20, GameState.W / 2);
+        Snapshot snapshot = new Snapshot();
+        FrameScheduler scheduler = new FrameScheduler(GameState.TICKS_PER_SECOND);
+        long ticks = (long) (seconds * GameState.TICKS_PER_SECOND);
+        for (long tick = 0; tick < ticks; tick++) {
+            scheduler.waitForNextTick();
+            if (!state.isPlaying)
+                state.startNormal();
+            state.step(Integer.signum(bot.velocity(state, false)));
+            snapshot.copyFrom(state, tick);
+            System.arraycopy(snapshot.values, 0, published[(int) (tick % HISTORY)], 0, Snapshot.VALUES);
+            publishedNs.set((int) (tick % HISTORY), System.nanoTime());
+            broadcast.publish(state);
+        }
+        FrameScheduler.pause(200000000); // let the last ticks arrive
+        isDone = true;
+    }
+}
@@ -4,65 +4,76 @@ import java.awt.*;
 import java.awt.geom.RoundRectangle2D;
 
 public class ChallengeInstructions {
+    private static final Font paragraphFont = new Font("Arial", Font.PLAIN, 16);
+    private static final String[] paragraphs = {
+            "In challenge mode, you play against an almost-perfect algorithm that will almost never lose.",
+            "The game ends as soon as you lose once.",
+            "The goal is to last for as much time as you can last without losing." };
+    private static final String buttonText = "Start Game!";
+    private static final int marginX = 40; // distance between paragraphs and the sides of the screen
+
     int buttonWidth;
     int buttonHeight;
     int buttonY;
 
+    // The instructions never change, so they are wrapped and measured once and then
+    // reused every frame.
+    private final TextLayoutCache layouts = new TextLayoutCache();
+    private TextLayoutCache.Layout[] paragraphLayouts;
+    private TextLayoutCache.Layout buttonLayout;
+    private RoundRectangle2D roundedRectangle;
+    private int buttonTextY;
+
     // Helper method to draw a string with word wrapping.
     // Returns the y position of the bottom of the last line.
-    private int drawStringWrap(Graphics g, String str, FontMetrics metrics, int initialY) {
+    private int drawStringWrap(Graphics g, TextLayoutCache.Layout layout, int initialY) {
         final double lineHeightFactor = 1.2;
-        final int marginX = 40;
-        String[] words = str.split(" ");
-        int lineHeight = (int) (lineHeightFactor * metrics.getHeight());
+        int lineHeight = (int) (lineHeightFactor * layout.height);
 
-        String currLine = "";
         int y = initialY;
-        for (String word : words) {
-            int wordWidth = metrics.stringWidth(word);
-            // If adding this word would make the line overflow, draw the current line.
-            if (wordWidth + metrics.stringWidth(currLine) > GamePanel.W - 2 * marginX) {
-                g.drawString(currLine, marginX, y);
-                currLine = "";
+        for (int i = 0; i < layout.lines.length; i++) {
+            if (i > 0)
                 y += lineHeight;
-            }
-            currLine += word + " ";
-
+            g.drawString(layout.lines[i], marginX, y);
         }
-        g.drawString(currLine, marginX, y);
         return y + lineHeight;
     }
 
+    // Measures the paragraphs and the button the first time the instructions are drawn.
+    private void layOut(Graphics g) {
+        paragraphLayouts = new TextLayoutCache.Layout[paragraphs.length];
+        for (int i = 0; i < paragraphs.length; i++)
+            paragraphLayouts[i] = layouts.layout(g, paragraphs[i], paragraphFont, GamePanel.W - 2 * marginX);
+
+        // Add button
+        buttonLayout = layouts.layout(g, buttonText, paragraphFont);
+        int padding = 10;
+        buttonHeight = buttonLayout.height + padding * 2;
+        buttonY = GamePanel.H / 2 - buttonHeight / 2;
+        buttonTextY = buttonY + buttonHeight / 2 + buttonLayout.height / 4;
+        buttonWidth = buttonLayout.width + 2 * padding;
+        int borderRadius = 10; // radius of rounded corners of the button
+        roundedRectangle = new RoundRectangle2D.Float(GamePanel.W / 2 - buttonWidth / 2, buttonY,
+                buttonWidth, buttonHeight, borderRadius, borderRadius);
+    }
+
     public void draw(Graphics g) {
+        if (paragraphLayouts == null)
+            layOut(g);
+
         g.setColor(Color.black);
         g.fillRect(0, 0, GamePanel.W, GamePanel.H);
 
         g.setColor(CustomColors.emerald400);
-        Font paragraphFont = new Font("Arial", Font.PLAIN, 16);
-        FontMetrics metrics = g.getFontMetrics(paragraphFont);
         g.setFont(paragraphFont);
         final int paragraphMargin = 20; // distance between paragraphs
-        int y = drawStringWrap(g,
-                "In challenge mode, you play against an almost-perfect algorithm that will almost never lose.",
-                metrics, 50);
-        y = drawStringWrap(g, "The game ends as soon as you lose once.", metrics, y + paragraphMargin);
-        y = drawStringWrap(g, "The goal is to last for as much time as you can last without losing.", metrics,
-                y + paragraphMargin);
+        int y = 50;
+        for (int i = 0; i < paragraphLayouts.length; i++)
+            y = drawStringWrap(g, paragraphLayouts[i], i == 0 ? y : y + paragraphMargin);
 
-        // Add button
-        String buttonText = "Start Game!";
-        int buttonTextWidth = metrics.stringWidth(buttonText);
-        int padding = 10;
-        buttonHeight = metrics.getHeight() + padding * 2;
-        buttonY = GamePanel.H / 2 - buttonHeight / 2;
-        int buttonTextY = buttonY + buttonHeight / 2 + metrics.getHeight() / 4;
-        buttonWidth = buttonTextWidth + 2 * padding;
         Graphics2D graphics2 = (Graphics2D) g;
-        int borderRadius = 10; // radius of rounded corners of the button
-        RoundRectangle2D roundedRectangle = new RoundRectangle2D.Float(GamePanel.W / 2 - buttonWidth / 2, buttonY,
-                buttonWidth, buttonHeight, borderRadius, borderRadius);
         graphics2.draw(roundedRectangle);
-        g.drawString(buttonText, GamePanel.W / 2 - buttonTextWidth / 2, buttonTextY);
+        g.drawString(buttonText, GamePanel.W / 2 - buttonLayout.width / 2, buttonTextY);
     }
 
     public boolean isClicked(int x, int y) {
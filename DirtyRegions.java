@@ -0,0 +1,91 @@
+/* DirtyRegions is a list of the rectangles of the screen that have to be drawn
+again in the next frame (because something moved or changed there).
+
+Rectangles are cut to the screen, and a rectangle that overlaps one already in the
+list is joined with it, so no pixel is drawn twice. The Rectangles are made once
+and reused, so adding regions every frame allocates nothing.
+*/
+import java.awt.Rectangle;
+
+public class DirtyRegions {
+
+    private Rectangle[] regions = new Rectangle[16];
+    private int count;
+
+    public DirtyRegions() {
+        for (int i = 0; i < regions.length; i++)
+            regions[i] = new Rectangle();
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // the i-th region; it stays the same until the next change to the list
+    public Rectangle get(int i) {
+        return regions[i];
+    }
+
+    // Adds the whole screen
+    public void addAll() {
+        add(0, 0, GamePanel.W, GamePanel.H);
+    }
+
+    public void add(Rectangle r) {
+        add(r.x, r.y, r.width, r.height);
+    }
+
+    public void addAll(DirtyRegions other) {
+        for (int i = 0; i < other.count; i++)
+            add(other.regions[i]);
+    }
+
+    public void add(int x, int y, int width, int height) {
+        // cut it to the screen
+        int right = Math.min(x + width, GamePanel.W);
+        int bottom = Math.min(y + height, GamePanel.H);
+        x = Math.max(x, 0);
+        y = Math.max(y, 0);
+        if (right <= x || bottom <= y)
+            return;
+
+        // join it with every region it overlaps; the joined region can overlap more
+        // regions, so look through the list again until it overlaps none
+        boolean isJoined = true;
+        while (isJoined) {
+            isJoined = false;
+            for (int i = 0; i < count; i++) {
+                Rectangle r = regions[i];
+                if (x < r.x + r.width && r.x < right && y < r.y + r.height && r.y < bottom) {
+                    x = Math.min(x, r.x);
+                    y = Math.min(y, r.y);
+                    right = Math.max(right, r.x + r.width);
+                    bottom = Math.max(bottom, r.y + r.height);
+                    regions[i] = regions[--count]; // take it out, keeping the Rectangle for reuse
+                    regions[count] = r;
+                    isJoined = true;
+                    break;
+                }
+            }
+        }
+
+        if (count == regions.length) {
+            regions = java.util.Arrays.copyOf(regions, count * 2);
+            for (int i = count; i < regions.length; i++)
+                regions[i] = new Rectangle();
+        }
+        regions[count++].setBounds(x, y, right - x, bottom - y);
+    }
+
+    // the number of pixels in all the regions
+    public long area() {
+        long area = 0;
+        for (int i = 0; i < count; i++)
+            area += (long) regions[i].width * regions[i].height;
+        return area;
+    }
+}
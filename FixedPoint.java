@@ -0,0 +1,59 @@
+/* FixedPoint has the numbers GameState needs for its fixed-point physics mode.
+
+In fixed-point mode the ball's position and velocity are whole numbers of
+1/ONE pixels, and everything the ball does is worked out with long arithmetic,
+which gives exactly the same answer on every computer and JVM. Math.sin() and
+Math.cos() may not (they are allowed to differ in the last bit between JVMs and
+processors), so the ball never calls them in fixed-point mode: the sines and
+cosines it needs are worked out once, with StrictMath (which is specified to give
+the same bits everywhere), and kept in tables.
+
+So two computers that are given the same seed and the same input simulate exactly
+the same match, and only the input needs to be sent between them.
+*/
+public class FixedPoint {
+
+    public static final int BITS = 16;
+    public static final long ONE = 1L << BITS; // 1 pixel
+
+    // launch directions of the ball, from pi/2 to 3pi/2 (towards the player)
+    public static final int LAUNCH_BITS = 10;
+    public static final long[] LAUNCH_COS = new long[1 << LAUNCH_BITS];
+    public static final long[] LAUNCH_SIN = new long[1 << LAUNCH_BITS];
+    static {
+        for (int i = 0; i < LAUNCH_COS.length; i++) {
+            double theta = (i + 0.5) / LAUNCH_COS.length * Math.PI + Math.PI / 2;
+            LAUNCH_COS[i] = of(StrictMath.cos(theta));
+            LAUNCH_SIN[i] = of(StrictMath.sin(theta));
+        }
+    }
+
+    // the number of different jitter angles a bounce can add
+    public static final int JITTER_BITS = 8;
+
+    // Returns `value` in fixed-point, rounded to the nearest 1/ONE. Doubles that came
+    // from fixed-point numbers (with toDouble()) come back exactly.
+    public static long of(double value) {
+        return Math.round(value * ONE);
+    }
+
+    // Returns a fixed-point number as a double. This is exact, so it is safe to keep
+    // fixed-point numbers in double fields.
+    public static double toDouble(long value) {
+        return (double) value / ONE;
+    }
+
+    // multiplies two fixed-point numbers
+    public static long multiply(long a, long b) {
+        return a * b / ONE;
+    }
+
+    // Fills `cos` and `sin` with the jitter angles from -maxAngle to maxAngle
+    public static void jitterTable(double maxAngle, long[] cos, long[] sin) {
+        for (int i = 0; i < cos.length; i++) {
+            double angle = ((i + 0.5) / cos.length * 2 - 1) * maxAngle;
+            cos[i] = of(StrictMath.cos(angle));
+            sin[i] = of(StrictMath.sin(angle));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/* FrameHandoff passes FrameStates from the game thread to the Swing thread without
+locks ("triple buffering").
+
+There are three FrameStates. The game thread always writes into its own one (the
+back frame) and the Swing thread always draws its own one (the front frame), so
+neither ever sees the other half way through. The third one sits in the middle.
+Publishing swaps the back frame with the middle one, and reading swaps the front
+frame with the middle one if a newer frame was published since the last read.
+Both swaps are a single atomic getAndSet, so neither thread ever waits for the
+other: the game thread never waits for a slow frame to be drawn, and the Swing
+thread always draws the newest complete tick.
+*/
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FrameHandoff {
+
+    private static final int INDEX = 3; // bits of `middle` holding the index of the middle frame
+    private static final int FRESH = 4; // set in `middle` when it holds a frame that hasn't been read yet
+
+    private final FrameState[] frames = { new FrameState(), new FrameState(), new FrameState() };
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0; // only used by the game thread
+    private FrameState latest; // last frame published, only used by the game thread
+    private int front = 2; // only used by the drawing thread
+
+    // starts with every frame showing `state`
+    public FrameHandoff(GameState state) {
+        for (FrameState frame : frames)
+            frame.copyFrom(state, null, true, System.nanoTime(), 0);
+    }
+
+    // Called by the game thread after every tick to make `state` the newest frame.
+    // See FrameState.copyFrom() for the other arguments.
+    public void publish(GameState state, boolean isJump, long tickNs, long periodNs) {
+        FrameState frame = frames[back];
+        // The drawing thread never changes a frame, so the last one published can
+        // still be read here even if it is being drawn.
+        frame.copyFrom(state, latest, isJump, tickNs, periodNs);
+        latest = frame;
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    // Called by the drawing thread. Returns the newest published frame, which stays
+    // unchanged until the next call.
+    public FrameState read() {
+        if ((middle.get() & FRESH) != 0)
+            front = middle.getAndSet(front) & INDEX;
+        return frames[front];
+    }
+}
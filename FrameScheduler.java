@@ -0,0 +1,92 @@
+/* FrameScheduler class paces a loop at a fixed number of ticks per second.
+
+Instead of spinning on System.nanoTime() the whole time, it parks the thread until
+just before the next tick is due and only spins for the last fraction of a
+millisecond, which parking is too coarse to hit accurately.
+*/
+import java.util.concurrent.locks.LockSupport;
+
+public class FrameScheduler {
+
+    private static final long SPIN_NS = 500_000; // spin (instead of park) for the last 0.5ms before a tick
+
+    private long periodNs; // time between ticks in nanoseconds
+    private long nextTickNs; // time at which the next tick is due
+    private long tickNs; // time at which the last tick was due
+    private int maxTicksBehind = 5; // give up catching up if we fall this many ticks behind
+    private long skippedTicks; // ticks given up on so far
+
+    public FrameScheduler(double ticksPerSecond) {
+        setRate(ticksPerSecond);
+        reset();
+    }
+
+    // change how many ticks happen per second. Takes effect from the next tick.
+    public void setRate(double ticksPerSecond) {
+        periodNs = (long) (1000000000 / ticksPerSecond);
+    }
+
+    public long getPeriodNs() {
+        return periodNs;
+    }
+
+    // Returns the time (System.nanoTime()) at which the last tick was due. Unlike the
+    // time it actually started, this is exactly one period after the tick before.
+    public long getTickNs() {
+        return tickNs;
+    }
+
+    // Returns how many ticks were skipped so far because the loop fell more than
+    // maxTicksBehind ticks behind
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    // Change how many ticks late we may fall before giving up on catching up. While
+    // behind, waitForNextTick() returns straight away so the loop runs the missed
+    // ticks back to back.
+    public void setMaxTicksBehind(int ticks) {
+        maxTicksBehind = ticks;
+    }
+
+    // start counting ticks from now, e.g. after the game was paused.
+    public void reset() {
+        nextTickNs = System.nanoTime() + periodNs;
+    }
+
+    // Blocks until the next tick is due.
+    // Returns how late (in nanoseconds) the tick actually started, which is the
+    // tick jitter.
+    public long waitForNextTick() {
+        long deadline = nextTickNs;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > SPIN_NS) {
+            LockSupport.parkNanos(remaining - SPIN_NS);
+        }
+        while (System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        long now = System.nanoTime();
+        tickNs = deadline;
+
+        // Keep the cadence fixed (deadlines do not drift if one tick is late), but if we
+        // fell far behind (e.g. the computer was busy or suspended) start over from now
+        // rather than running many ticks back to back.
+        nextTickNs += periodNs;
+        if (now - nextTickNs > maxTicksBehind * periodNs) {
+            skippedTicks += (now - nextTickNs) / periodNs;
+            nextTickNs = now + periodNs;
+        }
+
+        return now - deadline;
+    }
+
+    // Blocks for the given number of nanoseconds without using the CPU.
+    public static void pause(long ns) {
+        long end = System.nanoTime() + ns;
+        long remaining;
+        while ((remaining = end - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
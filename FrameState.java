@@ -0,0 +1,107 @@
+/* FrameState is a copy of everything GamePanel needs from the GameState to draw
+one frame.
+
+The game thread changes the GameState on every tick while the Swing thread is
+drawing, so drawing straight from the GameState could show the ball from one tick
+and the paddles from the next (or values the Swing thread never sees change at
+all). Instead the game thread copies the state into a FrameState after every tick
+and hands it over with FrameHandoff. Once handed over, a FrameState is never
+changed until the drawing thread has given it back.
+
+The screen is usually redrawn more often than the game ticks, so a FrameState
+also keeps where the ball and paddles were on the tick before. Frames drawn
+between two ticks show them part of the way from there to where they are now
+(interpolation), so they move smoothly instead of jumping once per tick.
+*/
+public class FrameState {
+
+    public double ballX;
+    public double ballY;
+    public int playerY;
+    public int computerY;
+    // positions on the tick before, where interpolation starts from
+    public double previousBallX;
+    public double previousBallY;
+    public int previousPlayerY;
+    public int previousComputerY;
+    // the balls of a chaos mode match, and how far they move per tick (chaos balls are
+    // interpolated from their velocity, since there are too many to keep twice)
+    public int ballCount;
+    public int ballD;
+    public double[] ballsX = new double[0];
+    public double[] ballsY = new double[0];
+    public double[] ballsVx = new double[0];
+    public double[] ballsVy = new double[0];
+    public long tickNs; // when this tick was due (System.nanoTime())
+    public long periodNs; // time until the next tick is due
+
+    public int playerScore;
+    public int computerScore;
+    public String mode;
+    public boolean isPlaying;
+    public boolean isSleeping;
+    public long elapsedSeconds;
+
+    // Copies what is drawn from `state`. `previous` is the frame of the tick before;
+    // if it is null or `isJump` is true (the ball and paddles were put back to the
+    // start, so they didn't really move there) nothing is interpolated.
+    public void copyFrom(GameState state, FrameState previous, boolean isJump, long tickNs, long periodNs) {
+        ballX = state.ballX;
+        ballY = state.ballY;
+        playerY = state.playerY;
+        computerY = state.computerY;
+        if (previous == null || isJump) {
+            previousBallX = ballX;
+            previousBallY = ballY;
+            previousPlayerY = playerY;
+            previousComputerY = computerY;
+        } else {
+            previousBallX = previous.ballX;
+            previousBallY = previous.ballY;
+            previousPlayerY = previous.playerY;
+            previousComputerY = previous.computerY;
+        }
+        this.tickNs = tickNs;
+        this.periodNs = periodNs;
+        copyBalls(state.mode == GameState.CHAOS ? state.balls : null);
+
+        playerScore = state.playerScore;
+        computerScore = state.computerScore;
+        mode = state.mode;
+        isPlaying = state.isPlaying;
+        isSleeping = state.isSleeping();
+        elapsedSeconds = state.getElapsedSeconds();
+    }
+
+    private void copyBalls(BallStore balls) {
+        ballCount = balls != null ? balls.count : 0;
+        if (balls == null)
+            return;
+        if (ballsX.length < ballCount) {
+            // only grows, so after the first chaos match this doesn't allocate
+            ballsX = new double[balls.x.length];
+            ballsY = new double[balls.x.length];
+            ballsVx = new double[balls.x.length];
+            ballsVy = new double[balls.x.length];
+        }
+        ballD = balls.d;
+        System.arraycopy(balls.x, 0, ballsX, 0, ballCount);
+        System.arraycopy(balls.y, 0, ballsY, 0, ballCount);
+        System.arraycopy(balls.vx, 0, ballsVx, 0, ballCount);
+        System.arraycopy(balls.vy, 0, ballsVy, 0, ballCount);
+    }
+
+    // Returns how far a frame drawn at `now` is between the tick before (0) and this
+    // tick (1).
+    public double progress(long now) {
+        if (periodNs <= 0)
+            return 1;
+        double progress = (double) (now - tickNs) / periodNs;
+        return Math.max(0, Math.min(1, progress));
+    }
+
+    // Returns the position `progress` of the way from `from` to `to`
+    public static int interpolate(double from, double to, double progress) {
+        return (int) (from + (to - from) * progress);
+    }
+}
@@ -7,383 +7,881 @@ Implements KeyListener interface to listen for keyboard input
 
 Implements Runnable interface to use "threading" - let the game do two things at once
 
+Only the game thread changes `state`. The Swing thread draws the FrameState the
+game thread published after its last tick (see FrameHandoff), and sends key
+presses and menu clicks to the game thread through an InputQueue. The home
+screen belongs to the Swing thread; the game thread changes it with invokeLater.
+
 */
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import javax.swing.*;
 
 public class GamePanel extends JPanel implements Runnable, KeyListener {
 
     // dimensions of window
-    public static final int W = 500; // width of window
-    public static final int H = 500; // height of window
-
-    public static final int WINNING_SCORE = 5;
+    public static final int W = GameState.W; // width of window
+    public static final int H = GameState.H; // height of window
+
+    public static final int WINNING_SCORE = GameState.WINNING_SCORE;
+
+    public static final int TICKS_PER_SECOND = GameState.TICKS_PER_SECOND; // how many times per second the game updates
+    public static final int IDLE_TICKS_PER_SECOND = 20; // how often the home screen is redrawn
+    // The screen is redrawn separately from the game ticks, by default as often as the
+    // display refreshes (run with -Dpong.fps= to choose a different cap, e.g. lower to
+    // save CPU)
+    public static final int FRAMES_PER_SECOND = Integer.getInteger("pong.fps", 0);
+    // number of balls in chaos mode (run with -Dpong.chaosBalls= to change it)
+    public static final int CHAOS_BALLS = Integer.getInteger("pong.chaosBalls", 500);
+    // if the game falls further behind than this many ticks (e.g. the computer was
+    // suspended), it skips them instead of running them all at once
+    public static final int MAX_CATCH_UP_TICKS = Integer.getInteger("pong.maxCatchUpTicks", 5);
+
+    // every match is recorded to a file in this directory (run with -Dpong.replayDir=
+    // to turn recording off)
+    public static final String REPLAY_DIR = System.getProperty("pong.replayDir", "replays");
+
+    // Two players on two computers: one runs with -Dpong.host=<port> and plays the left
+    // paddle, the other with -Dpong.join=<address>:<port> and plays the right paddle
+    // (see Lockstep). -Dpong.netLatency=<ms> and -Dpong.netLoss=<percent> make the
+    // network worse, for testing.
+    public static final String NET_HOST = System.getProperty("pong.host", "");
+    public static final String NET_JOIN = System.getProperty("pong.join", "");
+    // challenge mode results are kept in this directory (run with -Dpong.leaderboardDir=
+    // to not keep them)
+    public static final String LEADERBOARD_DIR = System.getProperty("pong.leaderboardDir", "leaderboard");
+    // run with -Dpong.broadcastPort=<port> to let spectators watch (see Broadcast)
+    public static final int BROADCAST_PORT = Integer.getInteger("pong.broadcastPort", -1);
 
     public Thread gameThread;
-    public Image image;
-    public Graphics graphics;
+    public Thread renderThread; // asks Swing to redraw the screen at the frame rate
+    private volatile boolean isIdle; // true while no match is being played
+    public VolatileImage image; // off screen image that every frame is drawn to before being shown
+    public Graphics2D graphics; // graphics of `image`, kept for as long as the image is
+    LoopStats stats; // measures the game loop; null for panels that aren't on screen
+    private final LoopStats.FrameEvent frameEvent = new LoopStats.FrameEvent(); // reused by every paint()
+    private boolean isShowingStats; // true while the stats overlay is shown (toggled with F3)
+    GameState state; // positions, scores and rules of the match that is being played
+    FrameHandoff frames; // passes a copy of `state` to the Swing thread after every tick
+    InputQueue input; // passes input from the Swing thread to the game thread
+    ReplayWriter recorder; // records the match being played, or null if not recording
+    // true once recording the match being played was started, even if it failed, so
+    // a failed recording isn't started again in the middle of the match
+    private boolean isRecordingStarted;
+    private int replayNumber; // added to replay file names, so two never have the same one
+    Lockstep lockstep; // plays the match with another computer, or null if not networked
+    NetChannel net; // talks to the other computer, or null if not networked
+    Broadcast broadcast; // sends every tick to spectators, or null if not broadcasting
+    Leaderboard leaderboard; // keeps challenge mode results, or null if they aren't kept
+    private boolean wantsStart; // the player clicked start; sent with the next networked input
+    KeyboardController keyboard; // the player plays the left paddle with the keyboard
+    // the ball and paddles are moved by `state`; these just draw them where the frame says
     PongBall ball;
     Paddle playerPaddle;
     Paddle computerPaddle;
-    int playerScore;
-    int computerScore;
     HomeScreen screen;
 
-    String mode = "normal"; // "normal" or "challenge"
-    long startTime; // time at which the game started (for calculating time elapsed for challenge
-                    // mode)
-
-    boolean isSleeping;
+    // Text is measured once and then reused every frame.
+    private static final Font scoreFont = new Font("Arial", Font.ITALIC, 50);
+    private static final Font paragraphFont = new Font("Arial", Font.PLAIN, 14);
+    private static final String instructionsText = "Use up and down arrow keys to control your paddle.";
+    private static final Font statsFont = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private static final Color statsBackground = new Color(255, 255, 255, 200);
+    private final TextLayoutCache textLayouts = new TextLayoutCache();
+    private final TextLayoutCache.Layout[] scoreLayouts = new TextLayoutCache.Layout[WINNING_SCORE + 1];
+    private String measuredElapsedTime; // the elapsed time text whose width is elapsedTimeWidth
+    private int elapsedTimeWidth;
+    private long elapsedTimeSeconds = -1; // the elapsed time that elapsedTimeText shows
+    private String elapsedTimeText;
+    private static final int scoreY = 80; // distance from the top of the window to the score text
+
+    // Only the parts of the frame where something moved or changed are drawn again
+    // (see draw()). What doesn't move is drawn once into layers, which are copied
+    // into those parts: the background under the ball and paddles, and the overlay
+    // on top of them (the home screen, score and instructions).
+    private BufferedImage background; // the background and paddle tracks
+    private BufferedImage overlay; // transparent except where overlayRegions are
+    private Graphics2D overlayGraphics;
+    private final DirtyRegions overlayRegions = new DirtyRegions(); // where there is something on the overlay
+    private boolean isOverlayOpaque; // the overlay covers the whole frame (the home screen is showing)
+    private long drawnScore = -1; // the score the overlay shows (see scoreKey())
+    private boolean drawnInstructions; // the overlay shows the instructions text
+    private final DirtyRegions dirty = new DirtyRegions(); // the parts of this frame that are drawn again
+    private boolean isImageStale = true; // the image doesn't hold the last frame (e.g. it was just made)
+    // where things were drawn in the last frame
+    private final Rectangle drawnBall = new Rectangle();
+    private final Rectangle drawnPlayer = new Rectangle();
+    private final Rectangle drawnComputer = new Rectangle();
+    private boolean drawnChaos;
+    private final Rectangle animatedBounds = new Rectangle(); // where the home screen's animation is
+    private int drawnAnimationStep = -1;
+    private final Rectangle statsBounds = new Rectangle();
+    private String[] drawnStats; // the stats lines shown, or null if they aren't
+    private String[] summarizedLines; // the LoopStats summary networkStatsLines was made from
+    private String[] networkStatsLines; // that summary with the network line added
+    long framePixels; // pixels drawn in the last frame, layers included
 
     public GamePanel() {
+        this(new GameState());
+        state.speedRamp = Boolean.getBoolean("pong.speedRamp"); // run with -Dpong.speedRamp=true to turn it on
+        // run with -Dpong.fixedPoint=true to move the ball in fixed-point (the same on every computer)
+        state.fixedPoint = Boolean.getBoolean("pong.fixedPoint");
+        // run with -Dpong.ai=predictive (and optionally -Dpong.aiError=<pixels>) to play
+        // against the predictive computer paddle
+        if ("predictive".equals(System.getProperty("pong.ai")))
+            state.computerAi = new PredictiveAi(Double.parseDouble(System.getProperty("pong.aiError", "0")));
+
+        if (LEADERBOARD_DIR.length() > 0) {
+            try {
+                leaderboard = new Leaderboard(Path.of(LEADERBOARD_DIR));
+                screen.leaderboard = leaderboard;
+                Runtime.getRuntime().addShutdownHook(new Thread(this::closeLeaderboard));
+            } catch (IOException e) {
+                System.err.println("Could not open leaderboard: " + e);
+            }
+        }
+
+        if (BROADCAST_PORT >= 0) {
+            try {
+                broadcast = new Broadcast(BROADCAST_PORT);
+            } catch (IOException e) {
+                System.err.println("Could not start broadcasting: " + e);
+            }
+        }
+        stats = new LoopStats();
+        if (LoopStats.DUMP_FILE.length() > 0)
+            Runtime.getRuntime().addShutdownHook(new Thread(this::dumpStats));
+
+        // make this class run at the same time as other classes (without this each
+        // class would "pause" while another class runs). By using threading we can
+        // remove lag, and also allows us to do features like display timers in real
+        // time!
+        gameThread = new Thread(this);
+        gameThread.start();
+        renderThread = new Thread(this::render);
+        renderThread.start();
+    }
+
+    // creates a panel that draws `state`, without starting the game loop (e.g. for
+    // drawing frames off screen with draw())
+    public GamePanel(GameState state) {
+        this.state = state;
+        frames = new FrameHandoff(state);
+        input = new InputQueue();
+        keyboard = new KeyboardController(input);
         // create a ball, set start location to middle of screen
-        ball = new PongBall(W / 2, H / 2);
+        ball = new PongBall((int) state.ballX, (int) state.ballY);
         // create a player-controlled paddle, set start location to middle of screen
         // left side
-        playerPaddle = new Paddle(0, H / 2 - Paddle.H / 2);
+        playerPaddle = new Paddle(0, state.playerY);
         // create a computer-controlled paddle, set start location to middle of screen
         // right side
-        computerPaddle = new Paddle(W - Paddle.W, H / 2 - Paddle.H / 2);
+        computerPaddle = new Paddle(W - Paddle.W, state.computerY);
 
         // add the MousePressed method from the MouseAdapter - by doing this we can
-        // listen for mouse input.
+        // listen for mouse input. The match is started by the game thread at its next
+        // tick.
         addMouseListener(new MouseAdapter() {
             public void mousePressed(MouseEvent e) {
-                screen.mousePressed(e, () -> {
-                    sleep();
-                    mode = "normal";
-                    playerScore = 0;
-                    computerScore = 0;
-                }, () -> {
-                    sleep();
-                    mode = "challenge";
-                    startTime = System.currentTimeMillis();
-                });
+                screen.mousePressed(e, () -> input.offer(InputQueue.START_NORMAL),
+                        () -> input.offer(InputQueue.START_CHALLENGE), () -> input.offer(InputQueue.START_CHAOS));
             }
         });
 
-        playerScore = 0;
-        computerScore = 0;
-        screen = new HomeScreen("PONG!", ball, "Start Game");
+        screen = new HomeScreen("PONG!", "Start Game");
 
         this.setPreferredSize(new Dimension(W, H));
         this.setFocusable(true); // make everything in this class appear on the screen
         this.addKeyListener(this); // start listening for keyboard input
-
-        // make this class run at the same time as other classes (without this each
-        // class would "pause" while another class runs). By using threading we can
-        // remove lag, and also allows us to do features like display timers in real
-        // time!
-        gameThread = new Thread(this);
-        gameThread.start();
     }
 
     // paint is a method in java.awt library that we are overriding.
     // It is called automatically in the background in order to update what
     // appears in the window.
     public void paint(Graphics g) {
-        // use double buffering - draw images OFF the screen, then move the image on
-        // screen
-        image = createImage(W, H); // draw off screen
-        graphics = image.getGraphics();
-        draw(graphics);// update the positions of everything on the screen
-        g.drawImage(image, 0, 0, this); // move the image on the screen
+        LoopStats.FrameEvent event = frameEvent;
+        event.begin();
+        long start = System.nanoTime();
+        long allocatedBefore = stats != null ? LoopStats.threadAllocatedBytes() : 0;
 
+        // use double buffering - draw images OFF the screen, then move the image on
+        // screen. The off screen image is created once and reused for every frame; it
+        // is a VolatileImage (kept in video memory), so its contents can be lost at any
+        // time (e.g. when the display mode changes) and we must check for that.
+        do {
+            int status = image == null ? VolatileImage.IMAGE_INCOMPATIBLE
+                    : image.validate(getGraphicsConfiguration());
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                // first frame, or the image no longer matches the screen: make a new one
+                if (graphics != null)
+                    graphics.dispose();
+                if (image != null)
+                    image.flush();
+                image = createVolatileImage(W, H);
+                graphics = image.createGraphics();
+            }
+            if (status != VolatileImage.IMAGE_OK)
+                isImageStale = true; // a new image, or its contents were lost: draw all of it
+            draw(graphics);// update the positions of everything on the screen
+            g.drawImage(image, 0, 0, this); // move the image on the screen
+            Toolkit.getDefaultToolkit().sync(); // show it now, not when the window system gets round to it
+        } while (image.contentsLost()); // draw again if the image was lost while drawing
+
+        long allocated = 0;
+        if (stats != null) {
+            allocated = LoopStats.threadAllocatedBytes() - allocatedBefore;
+            stats.recordFrame(System.nanoTime() - start, allocated, framePixels);
+        }
+        if (event.shouldCommit()) {
+            event.allocated = allocated;
+            event.pixels = framePixels;
+            event.commit();
+        }
     }
 
-    // call the draw methods in each class to update positions as things move
+    // call the draw methods in each class to update positions as things move.
+    // `g` must still hold the frame drawn by the last call (or isImageStale be set),
+    // since only the parts of it that changed are drawn again.
     public void draw(Graphics g) {
-        // draw the background
+        FrameState frame = frames.read(); // the newest tick the game thread has finished
+        long pixels = 0;
+        if (background == null)
+            pixels += drawBackground();
+
+        // move the objects to where the game state has moved them to, part of the way
+        // from where they were on the tick before if this frame is drawn between two ticks
+        double progress = frame.progress(System.nanoTime());
+        ball.setLocation(FrameState.interpolate(frame.previousBallX, frame.ballX, progress),
+                FrameState.interpolate(frame.previousBallY, frame.ballY, progress));
+        playerPaddle.y = FrameState.interpolate(frame.previousPlayerY, frame.playerY, progress);
+        computerPaddle.y = FrameState.interpolate(frame.previousComputerY, frame.computerY, progress);
+
+        // work out which parts of the frame changed
+        dirty.clear();
+        if (isImageStale)
+            dirty.addAll();
+        long score = scoreKey(frame);
+        boolean showsInstructions = isShowingInstructions(frame);
+        if (overlay == null || isImageStale || screen.isChanged() || score != drawnScore
+                || showsInstructions != drawnInstructions) {
+            dirty.addAll(overlayRegions); // where the old overlay was
+            pixels += drawOverlay(frame);
+            drawnScore = score;
+            drawnInstructions = showsInstructions;
+            dirty.addAll(overlayRegions);
+        }
+        isImageStale = false;
+        boolean isChaos = frame.mode == GameState.CHAOS;
+        if (!isOverlayOpaque) {
+            // where the ball and paddles were and where they are now
+            if (isChaos || drawnChaos)
+                dirty.addAll(); // too many balls to keep track of
+            dirty.add(drawnBall);
+            dirty.add(ball);
+            dirty.add(drawnPlayer);
+            dirty.add(playerPaddle);
+            dirty.add(drawnComputer);
+            dirty.add(computerPaddle);
+        }
+        screen.getAnimatedBounds(animatedBounds);
+        int animationStep = screen.animationStep();
+        if (animationStep != drawnAnimationStep) {
+            dirty.add(animatedBounds);
+            drawnAnimationStep = animationStep;
+        }
+        String[] statsLines = isShowingStats && stats != null ? statsLines() : null;
+        if (statsLines != drawnStats) {
+            dirty.add(statsBounds); // where the old stats were
+            if (statsLines != null) {
+                statsBounds.setBounds(Paddle.W, 0, 260,
+                        statsLines.length * textLayouts.metrics(g, statsFont).getHeight() + 8);
+                dirty.add(statsBounds);
+            } else {
+                statsBounds.setBounds(0, 0, 0, 0);
+            }
+            drawnStats = statsLines;
+        }
+
+        // draw those parts again, from the bottom layer to the top
+        for (int i = 0; i < dirty.size(); i++) {
+            Rectangle r = dirty.get(i);
+            g.setClip(r.x, r.y, r.width, r.height);
+            if (!isOverlayOpaque) {
+                pixels += copy(g, background, r, r);
+                if (isChaos) {
+                    pixels += drawBalls(g, frame, progress);
+                } else if (r.intersects(ball)) {
+                    ball.draw(g);
+                    pixels += overlap(r, ball);
+                }
+                if (r.intersects(playerPaddle)) {
+                    playerPaddle.draw(g);
+                    pixels += overlap(r, playerPaddle);
+                }
+                if (r.intersects(computerPaddle)) {
+                    computerPaddle.draw(g);
+                    pixels += overlap(r, computerPaddle);
+                }
+            }
+            for (int j = 0; j < overlayRegions.size(); j++)
+                pixels += copy(g, overlay, r, overlayRegions.get(j));
+            if (r.intersects(animatedBounds)) {
+                screen.drawAnimated(g);
+                pixels += overlap(r, animatedBounds);
+            }
+            if (statsLines != null && r.intersects(statsBounds)) {
+                drawStats(g, statsLines);
+                pixels += overlap(r, statsBounds);
+            }
+        }
+        g.setClip(null);
+        drawnBall.setBounds(ball);
+        drawnPlayer.setBounds(playerPaddle);
+        drawnComputer.setBounds(computerPaddle);
+        drawnChaos = isChaos;
+        framePixels = pixels;
+    }
+
+    // Makes the next draw() draw the whole frame, overlay included, instead of only
+    // what changed
+    public void redrawAll() {
+        isImageStale = true;
+    }
+
+    // Draws the background and the tracks that the paddles travel on into the
+    // background layer. Returns the number of pixels drawn.
+    private long drawBackground() {
+        background = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
+        Graphics g = background.createGraphics();
+        drawField(g);
+        g.dispose();
+        return (long) W * H + 2 * Paddle.W * H;
+    }
+
+    // Draws the background and the paddle tracks into `g` (also used by MultiTable)
+    static void drawField(Graphics g) {
         Color bgColor = CustomColors.emerald50;
         g.setColor(bgColor);
         g.fillRect(0, 0, GamePanel.W, GamePanel.H);
-
-        // draw tracks that the paddles travel on
         g.setColor(CustomColors.emerald100);
         g.fillRect(0, 0, Paddle.W, H);
         g.fillRect(W - Paddle.W, 0, Paddle.W, H);
+    }
+
+    // Draws the home screen, score and instructions into the overlay, and sets
+    // overlayRegions to where they are. Returns the number of pixels drawn.
+    private long drawOverlay(FrameState frame) {
+        if (overlay == null) {
+            overlay = new BufferedImage(W, H, BufferedImage.TYPE_INT_ARGB_PRE);
+            overlayGraphics = overlay.createGraphics();
+        }
+        Graphics2D g = overlayGraphics;
+        // clear what was there before
+        long pixels = overlayRegions.area();
+        g.setComposite(AlphaComposite.Clear);
+        for (int i = 0; i < overlayRegions.size(); i++) {
+            Rectangle r = overlayRegions.get(i);
+            g.fillRect(r.x, r.y, r.width, r.height);
+        }
+        g.setComposite(AlphaComposite.SrcOver);
+        overlayRegions.clear();
+
+        screen.drawStatic(g); // draw the screen after ball and paddles so it is on top of them
+        isOverlayOpaque = screen.isVisible;
+        if (isOverlayOpaque) {
+            overlayRegions.addAll();
+            pixels += (long) W * H;
+        }
+        // the text is given the whole width of the window, since italic letters can
+        // stick out past their measured width
+        if (drawScore(g, frame)) {
+            FontMetrics metrics = textLayouts.metrics(g, scoreFont);
+            overlayRegions.add(0, scoreY - metrics.getAscent(), W, metrics.getHeight());
+        }
+        if (drawInstructions(g, frame)) {
+            FontMetrics metrics = textLayouts.metrics(g, paragraphFont);
+            overlayRegions.add(0, instructionsY(g) - metrics.getAscent(), W, metrics.getHeight());
+        }
+        return pixels + (isOverlayOpaque ? 0 : overlayRegions.area());
+    }
+
+    // Copies the part of `layer` that is in both `r` and `part` into the frame.
+    // Returns the number of pixels copied.
+    private static long copy(Graphics g, Image layer, Rectangle r, Rectangle part) {
+        int x1 = Math.max(r.x, part.x);
+        int y1 = Math.max(r.y, part.y);
+        int x2 = Math.min(r.x + r.width, part.x + part.width);
+        int y2 = Math.min(r.y + r.height, part.y + part.height);
+        if (x2 <= x1 || y2 <= y1)
+            return 0;
+        g.drawImage(layer, x1, y1, x2, y2, x1, y1, x2, y2, null);
+        return (long) (x2 - x1) * (y2 - y1);
+    }
+
+    // the number of pixels in both a and b
+    private static long overlap(Rectangle a, Rectangle b) {
+        long width = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        long height = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        return width > 0 && height > 0 ? width * height : 0;
+    }
+
+    // Draws the balls of a chaos mode match. Each ball is drawn where it was on the last
+    // tick, moved back along its velocity to where it was `progress` of a tick ago.
+    // Returns the number of pixels drawn.
+    private long drawBalls(Graphics g, FrameState frame, double progress) {
+        g.setColor(CustomColors.emerald300);
+        double back = 1 - progress;
+        int d = frame.ballD;
+        for (int i = 0; i < frame.ballCount; i++)
+            g.fillOval((int) (frame.ballsX[i] - frame.ballsVx[i] * back),
+                    (int) (frame.ballsY[i] - frame.ballsVy[i] * back), d, d);
+        return (long) frame.ballCount * d * d;
+    }
 
-        // draw the objects
-        ball.draw(g);
-        playerPaddle.draw(g);
-        computerPaddle.draw(g);
-        screen.draw(g); // draw the screen after ball and paddles so it is on top of them
-        drawScore(g);
-        drawInstructions(g);
+    // The summary of the last second of LoopStats (and of the network, if playing
+    // over one). The same array until the summary changes, once a second: the network
+    // line is only made again then too.
+    private String[] statsLines() {
+        String[] lines = stats.getSummary();
+        if (lockstep == null)
+            return lines;
+        if (lines != summarizedLines) {
+            networkStatsLines = java.util.Arrays.copyOf(lines, lines.length + 1);
+            networkStatsLines[lines.length] = lockstep.getSummary();
+            summarizedLines = lines;
+        }
+        return networkStatsLines;
+    }
+
+    // Draws the stats lines in the top left corner
+    private void drawStats(Graphics g, String[] lines) {
+        FontMetrics metrics = textLayouts.metrics(g, statsFont);
+        int lineHeight = metrics.getHeight();
+        g.setColor(statsBackground);
+        g.fillRect(Paddle.W, 0, 260, lines.length * lineHeight + 8);
+        g.setColor(CustomColors.emerald900);
+        g.setFont(statsFont);
+        for (int i = 0; i < lines.length; i++)
+            g.drawString(lines[i], Paddle.W + 4, 4 + i * lineHeight + metrics.getAscent());
+    }
+
+    // Writes the stats of the whole run to LoopStats.DUMP_FILE (when the game exits)
+    private void dumpStats() {
+        try {
+            stats.dump(Path.of(LoopStats.DUMP_FILE));
+        } catch (IOException e) {
+            System.err.println("Could not write stats: " + e);
+        }
+    }
+
+    // Writes the challenge mode results that aren't saved yet (when the game exits)
+    private void closeLeaderboard() {
+        try {
+            leaderboard.close();
+        } catch (IOException e) {
+            System.err.println("Could not save leaderboard: " + e);
+        }
+    }
+
+    // Returns a number that is different for every score text drawScore() can show
+    private long scoreKey(FrameState frame) {
+        return frame.mode != GameState.CHALLENGE ? (long) frame.playerScore << 32 | frame.computerScore
+                : -2 - frame.elapsedSeconds;
     }
 
-    private void drawScore(Graphics g) {
-        if (screen.isInstructions || (screen.isVisible && mode == "challenge"))
-            return; // Do not display score if is displaying instructions or if we're on the
-                    // challenge mode winning screen.
+    // Returns false if no score is shown
+    private boolean drawScore(Graphics g, FrameState frame) {
+        if (screen.isInstructions || (screen.isVisible && frame.mode == GameState.CHALLENGE))
+            return false; // Do not display score if is displaying instructions or if we're on the
+                          // challenge mode winning screen.
         if (screen.isVisible)
             g.setColor(CustomColors.emerald900);
         else
             g.setColor(CustomColors.emerald400);
 
-        int scoreFontSize = 50;
-        Font scoreFont = new Font("Arial", Font.ITALIC, scoreFontSize);
-        g.setFont(scoreFont);
-        FontMetrics metrics = g.getFontMetrics(scoreFont);
-        int marginTop = 80; // distance from top of window
-
-        if (mode == "normal") {
-            // Display the player's and computer's scores
-            // This score represents how many times the opposing player has missed the ball.
-
-            // Do some math to center the scores in their respective halves of the screen
-            String pT = Integer.toString(playerScore); // player score text
-            int pW = metrics.stringWidth(pT); // player score text width
-            int pCx = W / 4; // player score text center x
-            int pX = pCx - pW / 2; // player score text left corner x coordinate
-
-            String cT = Integer.toString(computerScore); // computer score text
-            int cW = metrics.stringWidth(cT); // computer score text width
-            int cCx = 3 * W / 4; // computer score text center x
-            int cX = cCx - cW / 2; // computer score text left corner x coordinate
-
-            g.drawString(pT, pX, marginTop);
-            g.drawString(cT, cX, marginTop);
+        if (frame.mode != GameState.CHALLENGE) {
+            drawScores(g, textLayouts, scoreLayouts, frame.playerScore, frame.computerScore);
         } else {
             // In challenge mode, display the time elapsed as the score.
-            String elapsedTime = getElapsedTime();
-            int textWidth = metrics.stringWidth(elapsedTime);
-            int textX = W / 2 - textWidth / 2;
-            g.drawString(elapsedTime, textX, marginTop);
+            g.setFont(scoreFont);
+            String elapsedTime = getElapsedTime(frame.elapsedSeconds);
+            if (elapsedTime != measuredElapsedTime) {
+                // the text changes once a second, so measure it again only then
+                elapsedTimeWidth = textLayouts.metrics(g, scoreFont).stringWidth(elapsedTime);
+                measuredElapsedTime = elapsedTime;
+            }
+            int textX = W / 2 - elapsedTimeWidth / 2;
+            g.drawString(elapsedTime, textX, scoreY);
         }
+        return true;
+    }
+
+    // Display the player's and computer's scores, in the color `g` has (also used by
+    // MultiTable). The texts are measured with `textLayouts` and kept in `scoreLayouts`.
+    // This score represents how many times the opposing player has missed the ball.
+    static void drawScores(Graphics g, TextLayoutCache textLayouts, TextLayoutCache.Layout[] scoreLayouts,
+            int playerScore, int computerScore) {
+        g.setFont(scoreFont);
+        int marginTop = scoreY; // distance from top of window
 
+        // Do some math to center the scores in their respective halves of the screen
+        TextLayoutCache.Layout pT = scoreText(g, textLayouts, scoreLayouts, playerScore); // player score text
+        int pCx = W / 4; // player score text center x
+        int pX = pCx - pT.width / 2; // player score text left corner x coordinate
+
+        TextLayoutCache.Layout cT = scoreText(g, textLayouts, scoreLayouts, computerScore); // computer score text
+        int cCx = 3 * W / 4; // computer score text center x
+        int cX = cCx - cT.width / 2; // computer score text left corner x coordinate
+
+        g.drawString(pT.lines[0], pX, marginTop);
+        g.drawString(cT.lines[0], cX, marginTop);
     }
 
-    // Add instructions to use up and down arrow keys
-    private void drawInstructions(Graphics g) {
-        // Display iff screen is showing challenge instructions or if on first sleep
-        // when the game starts.
-        if (screen.isInstructions
-                || isSleeping && (playerScore == 0 && computerScore == 0 || getElapsedTime() == "00:00")) {
-            final int marginBottom = 20; // distance from the bottom of screen
-            g.setColor(screen.isVisible ? CustomColors.emerald600 : CustomColors.emerald400);
-            Font paragraphFont = new Font("Arial", Font.PLAIN, 14);
-            g.setFont(paragraphFont);
-            FontMetrics paragraphMetrics = g.getFontMetrics(paragraphFont); // button 2 text metrics
-            int instructionsY = GamePanel.H - marginBottom - paragraphMetrics.getHeight();
-            String instructionsText = "Use up and down arrow keys to control your paddle.";
-            int instructionsX = GamePanel.W / 2 - paragraphMetrics.stringWidth(instructionsText) / 2;
-            g.drawString(instructionsText, instructionsX, instructionsY);
-        }
+    // Returns the measured text for a score, measuring it only the first time that
+    // score is displayed.
+    private static TextLayoutCache.Layout scoreText(Graphics g, TextLayoutCache textLayouts,
+            TextLayoutCache.Layout[] scoreLayouts, int score) {
+        if (score >= scoreLayouts.length)
+            return textLayouts.layout(g, Integer.toString(score), scoreFont);
+        if (scoreLayouts[score] == null)
+            scoreLayouts[score] = textLayouts.layout(g, Integer.toString(score), scoreFont);
+        return scoreLayouts[score];
+    }
+
+    // Display iff screen is showing challenge instructions or if on first sleep
+    // when the game starts.
+    private boolean isShowingInstructions(FrameState frame) {
+        return screen.isInstructions
+                || frame.isSleeping && (frame.mode != GameState.CHALLENGE
+                        ? frame.playerScore == 0 && frame.computerScore == 0
+                        : frame.elapsedSeconds == 0);
+    }
+
+    // Add instructions to use up and down arrow keys. Returns false if they aren't shown.
+    private boolean drawInstructions(Graphics g, FrameState frame) {
+        if (!isShowingInstructions(frame))
+            return false;
+        g.setColor(screen.isVisible ? CustomColors.emerald600 : CustomColors.emerald400);
+        g.setFont(paragraphFont);
+        TextLayoutCache.Layout instructions = textLayouts.layout(g, instructionsText, paragraphFont);
+        int instructionsX = GamePanel.W / 2 - instructions.width / 2;
+        g.drawString(instructionsText, instructionsX, instructionsY(g));
+        return true;
+    }
+
+    // the y of the instructions text
+    private int instructionsY(Graphics g) {
+        final int marginBottom = 20; // distance from the bottom of screen
+        return GamePanel.H - marginBottom - textLayouts.metrics(g, paragraphFont).getHeight();
     }
 
     // Returns time passed since the start of the challenge game in the format
-    // "mm:ss"
-    private String getElapsedTime() {
-        long elapsedMs = System.currentTimeMillis() - startTime; // time elapsed in milliseconds
-        long elapsedS = elapsedMs / 1000; // time elapsed in seconds
+    // "mm:ss". Only called by the Swing thread.
+    private String getElapsedTime(long elapsedS) {
+        if (elapsedS == elapsedTimeSeconds)
+            return elapsedTimeText; // only make a new string once a second
         long elapsedMins = elapsedS / 60; // time elapsed in minutes
         long elapsedSecs = elapsedS % 60; // time elapsed in seconds minus full minutes
 
         String secsString = elapsedSecs < 10 ? "0" + Long.toString(elapsedSecs) : Long.toString(elapsedSecs);
         String minsString = elapsedMins < 10 ? "0" + Long.toString(elapsedMins) : Long.toString(elapsedMins);
 
-        return minsString + ":" + secsString;
+        elapsedTimeSeconds = elapsedS;
+        elapsedTimeText = minsString + ":" + secsString;
+        return elapsedTimeText;
     }
 
-    // This method controlls the "algorithm" for the computer-controlled paddle.
-    // move the computer paddle towards the ball if ball is moving towards the
-    // computer paddle and the ball is on the right side of the screen.
-    private void updateComputerPaddleVelocity() {
-
-        if (Math.cos(ball.theta) > 0 && ball.x > (mode == "normal" ? W / 2 : W / 3)) {
-            final int error = mode == "normal" ? 20 : 0; // the ball will be this many pixels away from the paddle
-                                                         // before it changes direction
-            // if greater than 0, the algorithm will sometimes miss the ball, which gives
-            // the player a chance of winning.
-
-            int paddleCy = (computerPaddle.y + Paddle.H / 2); // center y coordinate of paddle
-            int ballCy = (ball.y + PongBall.D / 2); // center y coordinate of ball
-
-            // Only change direction if ball is sufficiently far away from paddle.
-            if (Math.abs(paddleCy - ballCy) > (Paddle.H / 2 + error)) {
-                // If paddle is above ball, move paddle down, and vice versa.
-                if (paddleCy < ballCy) {
-                    computerPaddle.setYVelocity(computerPaddle.SPEED);
-                } else if (computerPaddle.y > ball.y) {
-                    computerPaddle.setYVelocity(-computerPaddle.SPEED);
+    // Applies the input that arrived since the last tick. If a key was pressed and
+    // released between two ticks, the release is left for the next tick so the press
+    // still moves the paddle. Returns true if a match was started.
+    private boolean applyInput() {
+        boolean isStarted = false;
+        boolean pressed = false;
+        int command;
+        while ((command = input.peek()) != InputQueue.EMPTY) {
+            if (command == InputQueue.RELEASE && pressed)
+                break;
+            input.poll();
+            if (lockstep != null) {
+                // networked matches are always normal mode, and start when the input
+                // with the click reaches both sides
+                if (command == InputQueue.START_NORMAL || command == InputQueue.START_CHALLENGE
+                        || command == InputQueue.START_CHAOS)
+                    wantsStart = true;
+                else {
+                    keyboard.apply(command);
+                    pressed = command != InputQueue.RELEASE;
                 }
+            } else if (command == InputQueue.START_NORMAL) {
+                state.startNormal();
+                isStarted = true;
+            } else if (command == InputQueue.START_CHALLENGE) {
+                state.startChallenge();
+                isStarted = true;
+            } else if (command == InputQueue.START_CHAOS) {
+                state.startChaos(CHAOS_BALLS);
+                isStarted = true;
+            } else {
+                keyboard.apply(command);
+                pressed = command != InputQueue.RELEASE;
             }
-        } else {
-            // If ball is moving away from paddle, stop the paddle.
-            computerPaddle.setYVelocity(0);
         }
-
+        return isStarted;
     }
 
-    // Check for collision and update theta accordingly.
-    // This method is continually called in the move method because positions are
-    // updated according to collisions.
-    private void checkCollision() {
-        final double randomIncrement = 0.2; // add a little bit of randomness to the angle each time ball bounces.
-        // Does ball hit paddle?
-        if ((ball.x + PongBall.D) >= playerPaddle.x
-                && ball.x <= playerPaddle.x + Paddle.W
-                && ball.y + PongBall.D >= playerPaddle.y && ball.y <= playerPaddle.y + Paddle.H) {
+    // Moves the game forward by one tick and shows the home screen if the match
+    // ended. Returns the events of the tick (see GameState.step()).
+    public int move() {
+        if (lockstep != null)
+            return showResult(moveNetworked());
 
-            // reflect theta across the y axis if ball is currently moving left
-            if (Math.cos(ball.theta) < 0) {
-                ball.theta = Math.PI - ball.theta;
-                ball.theta += Math.random() * randomIncrement * 2 - randomIncrement;
-            }
+        // (chaos mode matches can't be saved, so they aren't recorded)
+        if (state.isPlaying && !isRecordingStarted && REPLAY_DIR.length() > 0 && state.mode != GameState.CHAOS) {
+            isRecordingStarted = true;
+            startRecording(); // a new match was just started
         }
-        // Does hall hit computer paddle?
-        else if (ball.x + PongBall.D >= computerPaddle.x
-                && ball.x <= computerPaddle.x + Paddle.W
-                && ball.y + PongBall.D >= computerPaddle.y
-                && ball.y <= computerPaddle.y + Paddle.H) {
-            // reflect theta across the y axis if ball is currently moving right
-            if (Math.cos(ball.theta) > 0) {
-                ball.theta = Math.PI - ball.theta;
-                ball.theta += Math.random() * randomIncrement * 2 - randomIncrement;
 
-            }
-        } else if (ball.y <= 0 && Math.sin(ball.theta) < 0
-                || ball.y >= GamePanel.H - PongBall.D && Math.sin(ball.theta) > 0) {
-            // If ball hits top of screen while moving up or bottom while moving down,
-            // do a bounce (reflect theta across the x axis)
-            ball.theta *= -1;
-            ball.theta += Math.random() * randomIncrement * 2 - randomIncrement;
-
-        } else if (ball.x <= 0) {
-            // If ball hits the left of the screen (and not paddle), the player loses. the
-            // computer wins.
-            if (mode == "normal") {
-                computerScore++;
-                ball.reset();
-                if (computerScore >= WINNING_SCORE)
-                    // If computer has accumulated enough score to win the game, the game is over.
-                    // Show the start menu.
-                    screen.setText("Computer wins!", "Play again?");
-                else {
-                    // Else, start a new round.
-                    // Wait 1 second with the ball in the middle of the screen before the ball
-                    // starts moving.
-                    sleep();
-                    ball.start();
-                }
-            } else {
-                // in challenge mode, the game ends as soon as the player loses once.
-                // set text to display the home screen if the home screen isn't already being
-                // displayed.
-                if (!screen.isVisible) {
-                    screen.setText("You survived for " + getElapsedTime() + "!", "Normal mode", "Play again?");
-                    ball.reset();
+        int playerInput = Integer.signum(keyboard.velocity(state, false));
+        try {
+            if (recorder != null)
+                recorder.recordInput(playerInput);
+        } catch (IOException e) {
+            stopRecording(e);
+        }
+
+        int events = state.step(playerInput);
+        if (!state.isPlaying)
+            isRecordingStarted = false; // record the next match
+
+        try {
+            if (recorder != null) {
+                recorder.recordEvents(events);
+                if (!state.isPlaying) {
+                    // the match is over
+                    recorder.close();
+                    recorder = null;
                 }
             }
-        } else if (ball.x >= GamePanel.W - PongBall.D) {
-            // If ball hits the right of the screen (and not computerPaddle), the player
-            // wins.
-            playerScore++;
-            ball.reset();
-            if (mode == "normal" && playerScore >= WINNING_SCORE)
-                screen.setText("Player wins!", "Play again?");
-            else {
-                sleep();
-                ball.start();
-            }
+        } catch (IOException e) {
+            stopRecording(e);
         }
+        return showResult(events);
     }
 
-    private void adjustTheta() {
-        // Normalize theta to be between -pi and pi
-        if (ball.theta > Math.PI) {
-            ball.theta -= 2 * Math.PI;
-        } else if (ball.theta < -Math.PI) {
-            ball.theta += 2 * Math.PI;
+    // Shows the home screen if the match ended on a tick with these events. Returns the
+    // events.
+    private int showResult(int events) {
+        // the home screen belongs to the Swing thread, so it is shown from there
+        if ((events & GameState.COMPUTER_WINS) != 0) {
+            // If computer has accumulated enough score to win the game, the game is over.
+            // Show the start menu.
+            String text = lockstep != null ? "Right player wins!" : "Computer wins!";
+            SwingUtilities.invokeLater(() -> screen.setText(text, "Play again?"));
+        } else if ((events & GameState.PLAYER_WINS) != 0) {
+            String text = lockstep != null ? "Left player wins!" : "Player wins!";
+            SwingUtilities.invokeLater(() -> screen.setText(text, "Play again?"));
+        } else if ((events & GameState.CHALLENGE_OVER) != 0) {
+            if (leaderboard != null)
+                leaderboard.add(state.elapsedTicks);
+            long elapsedS = state.getElapsedSeconds();
+            SwingUtilities.invokeLater(() -> screen.setText("You survived for " + getElapsedTime(elapsedS) + "!",
+                    "Normal mode", "Play again?"));
+        } else if ((events & GameState.CHAOS_OVER) != 0)
+            SwingUtilities.invokeLater(() -> screen.setText("It's a draw!", "Play again?"));
+        return events;
+    }
+
+    // Moves a networked match forward by one tick: passes input to and from the other
+    // computer and plays the tick, unless this side has to wait for the other.
+    private int moveNetworked() {
+        boolean wasPlaying = state.isPlaying;
+        int events = 0;
+        try {
+            net.receive(lockstep);
+            if (!lockstep.shouldWait()) {
+                int direction = Integer.signum(keyboard.velocity(state, !lockstep.isLeft));
+                events = lockstep.advance(Lockstep.input(direction, wantsStart));
+                wantsStart = false;
+            }
+            net.sendInputs(lockstep);
+        } catch (IOException e) {
+            System.err.println("Network error: " + e);
         }
+        // The match may have been started by the other player, or have ended on a tick
+        // that was played again in a rollback, so look at the state instead of the events.
+        if (!wasPlaying && state.isPlaying)
+            SwingUtilities.invokeLater(screen::hide);
+        else if (wasPlaying && !state.isPlaying)
+            events |= state.playerScore > state.computerScore ? GameState.PLAYER_WINS : GameState.COMPUTER_WINS;
+        return events;
+    }
 
-        // If theta is too close to pi/2 or -pi/2, then the ball will bounce from top
-        // wall to bottom wall back and forth for too long, which makes the game slow
-        // and boring for the player. Thus, we will adjust it a little
-        // farther away from pi/2 and -pi/2.
-        double threshold = 0.5;
-        if (Math.abs(ball.theta - Math.PI / 2) < threshold) {
-            if (ball.theta < Math.PI / 2)
-                ball.theta = Math.PI / 2 - threshold - 0.1;
-            else
-                ball.theta = Math.PI / 2 + threshold + 0.1;
-        } else if (Math.abs(ball.theta + Math.PI / 2) < threshold) {
-            if (ball.theta < -Math.PI / 2)
-                ball.theta = -Math.PI / 2 - threshold - 0.1;
+    // Connects to the other computer given by NET_HOST or NET_JOIN, waiting until it is
+    // there
+    private void connect() {
+        boolean wasFixedPoint = state.fixedPoint; // Lockstep turns it on
+        try {
+            lockstep = new Lockstep(state, NET_JOIN.length() == 0);
+            if (lockstep.isLeft) {
+                net = new NetChannel(Integer.parseInt(NET_HOST), null);
+                System.out.println("Waiting for the other player on port " + net.getPort() + "...");
+            } else {
+                int colon = NET_JOIN.lastIndexOf(':');
+                net = new NetChannel(0, new InetSocketAddress(NET_JOIN.substring(0, colon),
+                        Integer.parseInt(NET_JOIN.substring(colon + 1))));
+            }
+            net.setLatency(Double.parseDouble(System.getProperty("pong.netLatency", "0")));
+            net.setLoss(Double.parseDouble(System.getProperty("pong.netLoss", "0")) / 100);
+            if (lockstep.isLeft)
+                net.host(state);
             else
-                ball.theta = -Math.PI / 2 + threshold + 0.1;
+                net.join(state);
+        } catch (IOException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            // a bad port or address (e.g. -Dpong.join without a ':') plays locally too
+            System.err.println("Could not connect: " + e);
+            if (net != null) {
+                try {
+                    net.close();
+                } catch (IOException closeError) {
+                    // it isn't used any more
+                }
+            }
+            lockstep = null;
+            net = null;
+            state.fixedPoint = wasFixedPoint; // play locally with the physics that were chosen
         }
     }
 
-    // call the move methods in other classes to update positions
-    // this method is constantly called from run(). By doing this, movements appear
-    // fluid and natural.
-    public void move() {
-        ball.move();
-        playerPaddle.move();
-        computerPaddle.move();
-        updateComputerPaddleVelocity();
-        checkCollision();
-        adjustTheta();
+    // Starts recording the match that was just started to a new file in REPLAY_DIR
+    private void startRecording() {
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        Path file = Path.of(REPLAY_DIR, "pong-" + time + "-" + replayNumber++ + "-" + state.mode + ".replay");
+        try {
+            Files.createDirectories(file.getParent());
+            recorder = new ReplayWriter(file, state);
+        } catch (IOException e) {
+            stopRecording(e);
+        }
     }
 
-    // Calling this method sleeps the game for 1 second.
-    // Sleeping = no movement of any element on the screen (the move method is not
-    // continually called when sleeping).
-    public void sleep() {
-        isSleeping = true;
+    // Gives up on recording the current match because the file couldn't be written
+    private void stopRecording(IOException e) {
+        System.err.println("Could not record replay: " + e);
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException closeError) {
+                // the recording is already broken, nothing more to do
+            }
+        }
+        recorder = null;
     }
 
     // run() method is what makes the game continue running without end. It calls
-    // other methods to move objects and update the screen
+    // other methods to move objects; the screen is updated by render().
     public void run() {
         // the CPU runs our game code too quickly - we need to slow it down! The
-        // following lines of code "force" the computer to get stuck in a loop for short
-        // intervals between calling other methods to update the screen.
-        long lastTime = System.nanoTime();
-        final double amountOfTicks = 60;
-        final double ns = 1000000000 / amountOfTicks;
-        double delta = 0;
-        long now;
-        long timeWhenSleepingStarted = 0;
+        // scheduler puts the thread to sleep until the next tick is due, so the game
+        // runs at a steady 60 ticks per second without using a whole CPU core. Every
+        // tick moves the game by the same amount of time; if ticks are late, the
+        // scheduler lets the missed ones run straight away (up to MAX_CATCH_UP_TICKS).
+        FrameScheduler scheduler = new FrameScheduler(TICKS_PER_SECOND);
+        scheduler.setMaxTicksBehind(MAX_CATCH_UP_TICKS);
+        boolean wasIdle = false;
+        LoopStats.TickEvent event = new LoopStats.TickEvent(); // reused every tick
+        if (NET_HOST.length() > 0 || NET_JOIN.length() > 0)
+            connect();
 
         while (true) { // this is the infinite game loop
-            now = System.nanoTime();
-            delta += (now - lastTime) / ns;
-            lastTime = now;
-            if (!isSleeping) {
-                // only move objects around and update screen if enough time has passed
-                if (delta >= 1) {
-                    move();
-                    repaint();
-                    delta--;
-                }
-            } else {
-                if (timeWhenSleepingStarted == 0) {
-                    timeWhenSleepingStarted = System.nanoTime();
-                } else if (System.nanoTime() - timeWhenSleepingStarted > 1000000000) {
-                    delta = 0; // Reset delta so playback resumes as if the sleeping never happened.
-                    isSleeping = false;
-                    timeWhenSleepingStarted = 0;
-                }
+            // While no match is being played (the home screen is showing) nothing moves,
+            // so only tick often enough to notice the menu being clicked. Networked games
+            // always tick, to keep up with the other side.
+            boolean isIdle = !state.isPlaying && lockstep == null;
+            if (isIdle != wasIdle) {
+                scheduler.setRate(isIdle ? IDLE_TICKS_PER_SECOND : TICKS_PER_SECOND);
+                scheduler.reset();
+                wasIdle = isIdle;
+                this.isIdle = isIdle;
+            }
+
+            long skippedBefore = scheduler.getSkippedTicks();
+            long jitter = scheduler.waitForNextTick();
+            event.begin();
+            long start = System.nanoTime();
+
+            boolean wasPlaying = state.isPlaying;
+            boolean isStarted = applyInput();
+            int events = state.isPlaying || lockstep != null ? move() : 0;
+            isStarted |= !wasPlaying && state.isPlaying;
+            // after a point is scored the ball is put back in the middle; don't draw it
+            // flying there (chaos mode balls are drawn from their velocity instead)
+            boolean isJump = isStarted || state.mode != GameState.CHAOS
+                    && (events & (GameState.PLAYER_SCORED | GameState.COMPUTER_SCORED)) != 0;
+            frames.publish(state, isJump, scheduler.getTickNs(), scheduler.getPeriodNs());
+            if (broadcast != null)
+                broadcast.publish(state);
+
+            long dropped = scheduler.getSkippedTicks() - skippedBefore;
+            if (stats != null)
+                stats.recordTick(System.nanoTime() - start, jitter, dropped);
+            if (event.shouldCommit()) {
+                event.jitter = jitter;
+                event.droppedTicks = dropped;
+                event.commit();
             }
         }
     }
 
-    // if a key is pressed, we'll send it over to the player paddle object for
-    // processing
+    // Asks Swing to redraw the screen FRAMES_PER_SECOND times a second, or only
+    // IDLE_TICKS_PER_SECOND times while the home screen is showing.
+    private void render() {
+        int frameRate = FRAMES_PER_SECOND > 0 ? FRAMES_PER_SECOND : displayRefreshRate();
+        FrameScheduler scheduler = new FrameScheduler(frameRate);
+        scheduler.setMaxTicksBehind(0); // a late frame is just drawn late, never twice
+        boolean wasIdle = false;
+
+        while (true) {
+            boolean isIdle = this.isIdle;
+            if (isIdle != wasIdle) {
+                scheduler.setRate(isIdle ? IDLE_TICKS_PER_SECOND : frameRate);
+                scheduler.reset();
+                wasIdle = isIdle;
+            }
+            scheduler.waitForNextTick();
+            repaint();
+        }
+    }
+
+    // Returns how many times per second the screen the panel is on refreshes, or
+    // TICKS_PER_SECOND if that is unknown
+    private int displayRefreshRate() {
+        GraphicsConfiguration config = getGraphicsConfiguration();
+        GraphicsDevice device = config != null ? config.getDevice()
+                : GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
+        int refreshRate = device.getDisplayMode().getRefreshRate();
+        return refreshRate != DisplayMode.REFRESH_RATE_UNKNOWN ? refreshRate : TICKS_PER_SECOND;
+    }
+
+    // if a key is pressed, we'll send it over to the keyboard controller, which
+    // queues it for the game thread
     public void keyPressed(KeyEvent e) {
-        // if is sleeping, then ignore key presses
-        if (!isSleeping)
-            playerPaddle.keyPressed(e);
+        if (e.getKeyCode() == KeyEvent.VK_F3)
+            isShowingStats = !isShowingStats; // F3 shows and hides the stats overlay
+        keyboard.keyPressed(e);
     }
 
-    // if a key is released, we'll send it over to the player paddle object for
+    // if a key is released, we'll send it over to the keyboard controller for
     // processing
     public void keyReleased(KeyEvent e) {
-        playerPaddle.keyReleased(e);
+        keyboard.keyReleased(e);
     }
 
     // left empty because we don't need it; must be here because it is required to
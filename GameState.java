@@ -0,0 +1,764 @@
+/* GameState class holds everything about one match of pong, and the rules that move
+the match forward one tick at a time.
+
+It doesn't use AWT or Swing at all, so a match can be simulated without a window,
+and as fast as the computer can go instead of 60 ticks per second. GamePanel draws
+a GameState on the screen and passes it the keyboard input.
+
+Positions are in pixels with (0, 0) at the top left of the playing field, like in
+the window.
+*/
+import java.nio.ByteBuffer;
+
+public class GameState {
+
+    // dimensions of the playing field
+    public static final int W = 500; // width of field
+    public static final int H = 500; // height of field
+
+    public static final int WINNING_SCORE = 5;
+    public static final int TICKS_PER_SECOND = 60; // how many times step() is called per second of play
+    public static final int SLEEP_TICKS = TICKS_PER_SECOND; // how long the pause before each round is
+
+    public static final int BALL_D = 20; // diameter of ball
+    public static final int BALL_SPEED = 5; // movement speed of ball, in pixels per tick
+    public static final double SPEED_RAMP = 1.05; // how much faster the ball gets per paddle hit in speed-ramp mode
+    public static final double MAX_BALL_SPEED = 400; // fastest the ball can go (still less than a paddle-to-paddle
+                                                     // crossing per tick)
+    public static final int PADDLE_W = 15; // width of paddle
+    public static final int PADDLE_H = 75; // height of paddle
+    public static final int PADDLE_SPEED = 5; // movement speed of paddle, in pixels per tick
+
+    public static final String NORMAL = "normal";
+    public static final String CHALLENGE = "challenge";
+    public static final String CHAOS = "chaos";
+
+    public static final int CHAOS_BALL_D = 4; // diameter of the balls in chaos mode
+    public static final int CHAOS_TICKS = 60 * TICKS_PER_SECOND; // how long a chaos mode match lasts
+
+    // Input for the player paddle, passed to step()
+    public static final int UP = -1;
+    public static final int NONE = 0;
+    public static final int DOWN = 1;
+
+    // Things that can happen during a tick. step() returns these combined with |
+    public static final int PLAYER_SCORED = 1; // the ball got past the computer paddle
+    public static final int COMPUTER_SCORED = 2; // the ball got past the player paddle
+    public static final int PLAYER_WINS = 4;
+    public static final int COMPUTER_WINS = 8;
+    public static final int CHALLENGE_OVER = 16; // the player missed the ball in challenge mode
+    public static final int PADDLE_HIT = 32; // the ball bounced off a paddle
+    public static final int WALL_HIT = 64; // the ball bounced off the top or bottom
+    public static final int CHAOS_OVER = 128; // a chaos mode match ran out of time
+    public static final int BALL_HIT = 256; // two balls bounced off each other in chaos mode
+
+    // What the ball runs into, used inside moveBall()
+    private static final int HIT_NOTHING = 0;
+    private static final int HIT_TOP = 1;
+    private static final int HIT_BOTTOM = 2;
+    private static final int HIT_PLAYER_PADDLE = 3;
+    private static final int HIT_COMPUTER_PADDLE = 4;
+    private static final int HIT_LEFT = 5;
+    private static final int HIT_RIGHT = 6;
+    // the ball bounces at most this many times per tick (it can only bounce more than
+    // once or twice if it is extremely fast)
+    private static final int MAX_BOUNCES_PER_TICK = 16;
+
+    // The ball never gets closer to going straight up or down than this angle (in
+    // radians), or it would bounce from top to bottom for too long, which makes the
+    // game slow and boring for the player. If it does, it is turned to
+    // TURNED_FROM_VERTICAL. Kept as sines and cosines so no angle has to be worked out.
+    private static final double MIN_FROM_VERTICAL = 0.5;
+    private static final double TURNED_FROM_VERTICAL = MIN_FROM_VERTICAL + 0.1;
+    private static final double MIN_SIDEWAYS = Math.sin(MIN_FROM_VERTICAL);
+    private static final double TURNED_SIDEWAYS = Math.sin(TURNED_FROM_VERTICAL);
+    private static final double TURNED_UPWARDS = Math.cos(TURNED_FROM_VERTICAL);
+    // the same in fixed-point
+    private static final long FIXED_MIN_SIDEWAYS = FixedPoint.of(StrictMath.sin(MIN_FROM_VERTICAL));
+    private static final long FIXED_TURNED_SIDEWAYS = FixedPoint.of(StrictMath.sin(TURNED_FROM_VERTICAL));
+    private static final long FIXED_TURNED_UPWARDS = FixedPoint.of(StrictMath.cos(TURNED_FROM_VERTICAL));
+    private static final long FIXED_SPEED_RAMP = FixedPoint.of(SPEED_RAMP);
+
+    // the ball. (ballX, ballY) is its top left corner.
+    public double ballX;
+    public double ballY;
+    // velocity of the ball in pixels per tick. Its direction only changes when the
+    // ball bounces, so the ball moves without any sin() or cos().
+    public double ballVx;
+    public double ballVy;
+    public double ballSpeed; // pixels per tick (the length of the velocity)
+    public boolean ballMoving;
+
+    public boolean speedRamp; // if true, the ball speeds up every time it hits a paddle
+    public double bounceJitter = 0.2; // the ball's angle changes randomly by up to this much on every bounce
+
+    // If true, the ball moves in fixed-point (see FixedPoint), so the match plays out
+    // exactly the same on every computer. The ball's doubles then always hold whole
+    // numbers of 1/FixedPoint.ONE pixels. Set it before starting a match.
+    public boolean fixedPoint;
+    // cosines and sines of the jitter angles in fixed-point, for bounceJitter (only
+    // made in fixed-point mode, as they take 4 KB)
+    private long[] jitterCos;
+    private long[] jitterSin;
+    private double jitterTableAngle = Double.NaN; // the bounceJitter the tables are for
+
+    // the paddles. The player paddle is on the left, the computer paddle on the right.
+    public int playerY;
+    public int playerVelocity;
+    public int computerY;
+    public int computerVelocity;
+
+    public int playerScore;
+    public int computerScore;
+
+    // How well the computer paddle plays in each mode. The paddle only follows the
+    // ball once the ball is past reactionX, and only changes direction once the ball
+    // is more than `error` pixels past the edge of the paddle. If error is greater
+    // than 0, the algorithm will sometimes miss the ball, which gives the player a
+    // chance of winning.
+    public int normalError = 20;
+    public int challengeError = 0;
+    public int normalReactionX = W / 2;
+    public int challengeReactionX = W / 3;
+    // if not null, this controls the computer paddle instead (e.g. a PredictiveAi, which
+    // predicts where the ball is going). Only a PredictiveAi is saved by writeTo().
+    public PaddleController computerAi;
+
+    public final long seed; // the seed the match's random numbers came from
+    public final MatchRandom random; // used for the ball's launch angle and bounces
+
+    // the balls of a chaos mode match (the single ball above isn't used then), or null
+    public BallStore balls;
+
+    public String mode = NORMAL; // NORMAL, CHALLENGE or CHAOS
+    public boolean isPlaying; // false before the first match and after a match is over
+    public int sleepTicks; // ticks left in the pause before the ball starts moving
+    public long elapsedTicks; // ticks since a challenge or chaos mode match started
+
+    // creates a match with a random seed
+    public GameState() {
+        this(System.nanoTime() ^ Thread.currentThread().getId() * 0x9e3779b97f4a7c15L);
+    }
+
+    // creates a match whose random numbers come from the given seed. Two matches with
+    // the same seed and the same input play out exactly the same way.
+    public GameState(long seed) {
+        this.seed = seed;
+        random = new MatchRandom(seed);
+        playerY = H / 2 - PADDLE_H / 2;
+        computerY = H / 2 - PADDLE_H / 2;
+        resetBall();
+    }
+
+    // starts a normal mode match: first to WINNING_SCORE wins.
+    public void startNormal() {
+        mode = NORMAL;
+        playerScore = 0;
+        computerScore = 0;
+        startMatch();
+    }
+
+    // starts a challenge mode match: it ends as soon as the player misses the ball.
+    public void startChallenge() {
+        mode = CHALLENGE;
+        elapsedTicks = 0;
+        startMatch();
+    }
+
+    // Starts a chaos mode match: `ballCount` small balls at once, which also bounce off
+    // each other. A ball that gets past a paddle scores and comes back from the
+    // middle. After CHAOS_TICKS the side with more points wins.
+    public void startChaos(int ballCount) {
+        mode = CHAOS;
+        playerScore = 0;
+        computerScore = 0;
+        elapsedTicks = 0;
+        if (balls == null || balls.x.length < ballCount)
+            balls = new BallStore(CHAOS_BALL_D, ballCount);
+        balls.clear();
+        for (int i = 0; i < ballCount; i++)
+            launchBall(balls.add(0, 0, 0, 0));
+        isPlaying = true;
+        sleepTicks = SLEEP_TICKS;
+        ballMoving = false;
+    }
+
+    private void startMatch() {
+        isPlaying = true;
+        resetBall();
+        startRound();
+    }
+
+    // true while the game is paused before a round
+    public boolean isSleeping() {
+        return sleepTicks > 0;
+    }
+
+    // Moves the match forward by one tick, with the player paddle moving in the
+    // direction given by playerInput (UP, DOWN or NONE) and the computer paddle
+    // played by the computer.
+    // Returns what happened during the tick (PLAYER_SCORED, PADDLE_HIT, ... combined
+    // with |), or 0.
+    public int step(int playerInput) {
+        return step(playerInput, NONE, true);
+    }
+
+    // Moves the match forward by one tick with both paddles played from outside, e.g.
+    // by two PaddleControllers. computerInput is the direction of the paddle on the
+    // right.
+    public int step(int playerInput, int computerInput) {
+        return step(playerInput, computerInput, false);
+    }
+
+    private int step(int playerInput, int computerInput, boolean isComputerPlaying) {
+        if (!isPlaying)
+            return 0;
+        if (mode != NORMAL)
+            elapsedTicks++;
+        if (sleepTicks > 0) {
+            // Sleeping = no movement of any element on the screen
+            sleepTicks--;
+            return 0;
+        }
+
+        playerVelocity = playerInput * PADDLE_SPEED;
+        if (!isComputerPlaying)
+            computerVelocity = computerInput * PADDLE_SPEED;
+
+        playerY = movePaddle(playerY, playerVelocity);
+        computerY = movePaddle(computerY, computerVelocity);
+        if (mode == CHAOS)
+            return moveBalls(isComputerPlaying);
+        int events = fixedPoint ? moveBallFixed() : moveBall();
+        if (isComputerPlaying)
+            updateComputerPaddleVelocity();
+        return events;
+    }
+
+    // reset the ball to the center of the screen and stop it moving.
+    private void resetBall() {
+        ballMoving = false;
+        ballX = W / 2;
+        ballY = W / 2;
+        ballSpeed = BALL_SPEED;
+        if (fixedPoint) {
+            // one of the directions in the table, from pi/2 to 3pi/2
+            int i = (int) (random.nextLong() >>> (64 - FixedPoint.LAUNCH_BITS));
+            ballVx = FixedPoint.toDouble(BALL_SPEED * FixedPoint.LAUNCH_COS[i]);
+            ballVy = FixedPoint.toDouble(BALL_SPEED * FixedPoint.LAUNCH_SIN[i]);
+            keepOffVertical();
+            return;
+        }
+        // Generate a random angle from pi/2 to 3pi/2 (so the ball always starts by
+        // going towards the player)
+        double theta = random.nextDouble() * Math.PI + Math.PI / 2;
+        ballVx = Math.cos(theta) * ballSpeed;
+        ballVy = Math.sin(theta) * ballSpeed;
+        keepOffVertical();
+    }
+
+    // Returns the direction the ball is moving in, in radians from the positive x-axis
+    // towards the positive y-axis (between -pi and pi)
+    public double getBallTheta() {
+        return Math.atan2(ballVy, ballVx);
+    }
+
+    // Changes the ball's speed without changing its direction
+    public void setBallSpeed(double speed) {
+        if (fixedPoint) {
+            long oldSpeed = FixedPoint.of(ballSpeed);
+            long newSpeed = FixedPoint.of(speed);
+            ballVx = FixedPoint.toDouble(FixedPoint.of(ballVx) * newSpeed / oldSpeed);
+            ballVy = FixedPoint.toDouble(FixedPoint.of(ballVy) * newSpeed / oldSpeed);
+            ballSpeed = FixedPoint.toDouble(newSpeed);
+            return;
+        }
+        ballVx *= speed / ballSpeed;
+        ballVy *= speed / ballSpeed;
+        ballSpeed = speed;
+    }
+
+    // Wait 1 second with the ball in the middle of the screen before the ball
+    // starts moving.
+    private void startRound() {
+        sleepTicks = SLEEP_TICKS;
+        ballMoving = true;
+    }
+
+    // Moves the ball along its path for one tick, bouncing it off whatever it hits.
+    //
+    // Moving the ball and then checking whether it overlaps something misses
+    // anything the ball jumps over in one tick, so a fast ball would go straight
+    // through a paddle. Instead, this works out the exact moment during the tick that
+    // the ball first touches a wall, a paddle or a goal, moves the ball to that point,
+    // bounces it, and carries on for the rest of the tick.
+    // Returns the events caused by the collisions.
+    private int moveBall() {
+        if (!ballMoving)
+            return 0;
+
+        int events = 0;
+        double remaining = 1; // how much of the tick is left to move for
+
+        // The only thing that can overlap the ball without the ball moving into it is a
+        // paddle moving onto it from above or below. Bounce it off, like it always has.
+        double computerX = W - PADDLE_W;
+        if (ballVx < 0 && ballX <= PADDLE_W && overlapsPaddle(ballY, playerY)) {
+            bounceOffPaddle(true);
+            events |= PADDLE_HIT;
+        } else if (ballVx > 0 && ballX + BALL_D >= computerX && overlapsPaddle(ballY, computerY)) {
+            bounceOffPaddle(false);
+            events |= PADDLE_HIT;
+        }
+
+        for (int bounces = 0; bounces < MAX_BOUNCES_PER_TICK; bounces++) {
+            double vx = ballVx;
+            double vy = ballVy;
+
+            // Find the first thing the ball touches, and when.
+            double t = remaining;
+            int hit = HIT_NOTHING;
+            if (vy < 0 && timeTo(ballY, 0, vy) <= t) {
+                t = timeTo(ballY, 0, vy);
+                hit = HIT_TOP;
+            } else if (vy > 0 && timeTo(ballY, H - BALL_D, vy) <= t) {
+                t = timeTo(ballY, H - BALL_D, vy);
+                hit = HIT_BOTTOM;
+            }
+            if (vx < 0) {
+                // the ball's left side reaching the front of the player paddle, or the
+                // left side of the screen if it misses the paddle
+                double paddleT = timeTo(ballX, PADDLE_W, vx);
+                if (ballX >= PADDLE_W && paddleT <= t && overlapsPaddle(ballY + vy * paddleT, playerY)) {
+                    t = paddleT;
+                    hit = HIT_PLAYER_PADDLE;
+                } else if (timeTo(ballX, 0, vx) <= t) {
+                    t = timeTo(ballX, 0, vx);
+                    hit = HIT_LEFT;
+                }
+            } else if (vx > 0) {
+                double paddleT = timeTo(ballX + BALL_D, computerX, vx);
+                if (ballX + BALL_D <= computerX && paddleT <= t && overlapsPaddle(ballY + vy * paddleT, computerY)) {
+                    t = paddleT;
+                    hit = HIT_COMPUTER_PADDLE;
+                } else if (timeTo(ballX, W - BALL_D, vx) <= t) {
+                    t = timeTo(ballX, W - BALL_D, vx);
+                    hit = HIT_RIGHT;
+                }
+            }
+
+            // Move the ball up to that point
+            ballX += vx * t;
+            ballY += vy * t;
+            remaining -= t;
+
+            if (hit == HIT_NOTHING) {
+                break;
+            } else if (hit == HIT_TOP || hit == HIT_BOTTOM) {
+                bounceOffWall(hit == HIT_TOP);
+                events |= WALL_HIT;
+            } else if (hit == HIT_PLAYER_PADDLE || hit == HIT_COMPUTER_PADDLE) {
+                bounceOffPaddle(hit == HIT_PLAYER_PADDLE);
+                events |= PADDLE_HIT;
+            } else {
+                // the ball got past a paddle
+                return events | score(hit == HIT_LEFT);
+            }
+        }
+        return events;
+    }
+
+    // Moves the balls of a chaos mode match for one tick. Returns the events.
+    private int moveBalls(boolean isComputerPlaying) {
+        int events = 0;
+        if (balls.move() > 0)
+            events |= WALL_HIT;
+
+        // Balls in chaos mode are slower than a paddle is wide, so a ball can only hit a
+        // paddle by crossing the paddle's front during this tick.
+        double computerX = W - PADDLE_W;
+        int d = balls.d;
+        double[] x = balls.x;
+        double[] vx = balls.vx;
+        for (int i = 0; i < balls.count; i++) {
+            double y = balls.y[i];
+            if (vx[i] < 0 && x[i] < PADDLE_W && x[i] - vx[i] >= PADDLE_W && y + d >= playerY
+                    && y <= playerY + PADDLE_H) {
+                x[i] = 2 * PADDLE_W - x[i];
+                vx[i] = -vx[i];
+                events |= PADDLE_HIT;
+            } else if (vx[i] > 0 && x[i] + d > computerX && x[i] + d - vx[i] <= computerX && y + d >= computerY
+                    && y <= computerY + PADDLE_H) {
+                x[i] = 2 * (computerX - d) - x[i];
+                vx[i] = -vx[i];
+                events |= PADDLE_HIT;
+            } else if (x[i] < 0) {
+                computerScore++;
+                events |= COMPUTER_SCORED;
+                launchBall(i);
+            } else if (x[i] > W - d) {
+                playerScore++;
+                events |= PLAYER_SCORED;
+                launchBall(i);
+            }
+        }
+        if (balls.collide() > 0)
+            events |= BALL_HIT;
+
+        if (isComputerPlaying)
+            computerVelocity = followSoonestBall();
+        if (elapsedTicks >= CHAOS_TICKS) {
+            // Time is up. A draw is only CHAOS_OVER.
+            isPlaying = false;
+            events |= CHAOS_OVER;
+            if (playerScore > computerScore)
+                events |= PLAYER_WINS;
+            else if (computerScore > playerScore)
+                events |= COMPUTER_WINS;
+        }
+        return events;
+    }
+
+    // Puts chaos mode ball i somewhere in the middle of the field, going left or right
+    // at BALL_SPEED
+    private void launchBall(int i) {
+        int d = balls.d;
+        balls.x[i] = W / 2 - 50 + random.nextDouble() * (100 - d);
+        balls.y[i] = random.nextDouble() * (H - d);
+        double theta = (random.nextDouble() * 2 - 1) + (random.nextDouble() < 0.5 ? Math.PI : 0);
+        balls.vx[i] = Math.cos(theta) * BALL_SPEED;
+        balls.vy[i] = Math.sin(theta) * BALL_SPEED;
+    }
+
+    // The computer paddle in chaos mode: move towards the ball that will get to the
+    // paddle first.
+    private int followSoonestBall() {
+        double computerX = W - PADDLE_W;
+        double soonest = Double.MAX_VALUE;
+        double targetY = H / 2.0;
+        for (int i = 0; i < balls.count; i++) {
+            double vx = balls.vx[i];
+            if (vx <= 0)
+                continue;
+            double t = (computerX - balls.x[i] - balls.d) / vx;
+            if (t >= 0 && t < soonest) {
+                soonest = t;
+                targetY = balls.y[i] + balls.vy[i] * t + balls.d / 2.0;
+            }
+        }
+        double paddleCy = computerY + PADDLE_H / 2.0;
+        if (Math.abs(paddleCy - targetY) <= PADDLE_SPEED / 2.0)
+            return 0;
+        return paddleCy < targetY ? PADDLE_SPEED : -PADDLE_SPEED;
+    }
+
+    // moveBall() in fixed-point: the same steps, with every position, velocity and
+    // time a whole number of 1/FixedPoint.ONE (pixels, pixels per tick or ticks).
+    private int moveBallFixed() {
+        if (!ballMoving)
+            return 0;
+
+        final long one = FixedPoint.ONE;
+        final long paddleW = PADDLE_W * one;
+        final long computerX = (W - PADDLE_W) * one;
+        final long d = BALL_D * one;
+        int events = 0;
+        long remaining = one;
+
+        long x = FixedPoint.of(ballX);
+        long y = FixedPoint.of(ballY);
+        if (ballVx < 0 && x <= paddleW && overlapsPaddleFixed(y, playerY)) {
+            bounceOffPaddle(true);
+            events |= PADDLE_HIT;
+        } else if (ballVx > 0 && x + d >= computerX && overlapsPaddleFixed(y, computerY)) {
+            bounceOffPaddle(false);
+            events |= PADDLE_HIT;
+        }
+
+        for (int bounces = 0; bounces < MAX_BOUNCES_PER_TICK; bounces++) {
+            long vx = FixedPoint.of(ballVx);
+            long vy = FixedPoint.of(ballVy);
+
+            long t = remaining;
+            int hit = HIT_NOTHING;
+            if (vy < 0 && timeToFixed(y, 0, vy) <= t) {
+                t = timeToFixed(y, 0, vy);
+                hit = HIT_TOP;
+            } else if (vy > 0 && timeToFixed(y, (H - BALL_D) * one, vy) <= t) {
+                t = timeToFixed(y, (H - BALL_D) * one, vy);
+                hit = HIT_BOTTOM;
+            }
+            if (vx < 0) {
+                long paddleT = timeToFixed(x, paddleW, vx);
+                if (x >= paddleW && paddleT <= t && overlapsPaddleFixed(y + vy * paddleT / one, playerY)) {
+                    t = paddleT;
+                    hit = HIT_PLAYER_PADDLE;
+                } else if (timeToFixed(x, 0, vx) <= t) {
+                    t = timeToFixed(x, 0, vx);
+                    hit = HIT_LEFT;
+                }
+            } else if (vx > 0) {
+                long paddleT = timeToFixed(x + d, computerX, vx);
+                if (x + d <= computerX && paddleT <= t && overlapsPaddleFixed(y + vy * paddleT / one, computerY)) {
+                    t = paddleT;
+                    hit = HIT_COMPUTER_PADDLE;
+                } else if (timeToFixed(x, (W - BALL_D) * one, vx) <= t) {
+                    t = timeToFixed(x, (W - BALL_D) * one, vx);
+                    hit = HIT_RIGHT;
+                }
+            }
+
+            x += vx * t / one;
+            y += vy * t / one;
+            remaining -= t;
+            ballX = FixedPoint.toDouble(x);
+            ballY = FixedPoint.toDouble(y);
+
+            if (hit == HIT_NOTHING) {
+                break;
+            } else if (hit == HIT_TOP || hit == HIT_BOTTOM) {
+                bounceOffWall(hit == HIT_TOP);
+                events |= WALL_HIT;
+            } else if (hit == HIT_PLAYER_PADDLE || hit == HIT_COMPUTER_PADDLE) {
+                bounceOffPaddle(hit == HIT_PLAYER_PADDLE);
+                events |= PADDLE_HIT;
+            } else {
+                return events | score(hit == HIT_LEFT);
+            }
+        }
+        return events;
+    }
+
+    // timeTo() in fixed-point. Rounds down, so the ball never moves past `to`.
+    private static long timeToFixed(long from, long to, long velocity) {
+        return Math.max(0, (to - from) * FixedPoint.ONE / velocity);
+    }
+
+    // overlapsPaddle() in fixed-point
+    private static boolean overlapsPaddleFixed(long y, int paddleY) {
+        return y + BALL_D * FixedPoint.ONE >= paddleY * FixedPoint.ONE && y <= (paddleY + PADDLE_H) * FixedPoint.ONE;
+    }
+
+    // Returns how long (in ticks) something at `from` moving with `velocity` takes to
+    // get to `to`. Returns 0 if it is already there or past it.
+    private static double timeTo(double from, double to, double velocity) {
+        return Math.max(0, (to - from) / velocity);
+    }
+
+    // true if a ball at height y is level with a paddle at paddleY
+    private static boolean overlapsPaddle(double y, int paddleY) {
+        return y + BALL_D >= paddleY && y <= paddleY + PADDLE_H;
+    }
+
+    // Returns a little bit of randomness to add to the angle each time the ball bounces.
+    private double jitter() {
+        return random.nextDouble() * bounceJitter * 2 - bounceJitter;
+    }
+
+    // Turns the ball's velocity by `angle` radians
+    private void rotateBall(double angle) {
+        if (angle == 0)
+            return;
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double vx = ballVx;
+        ballVx = vx * cos - ballVy * sin;
+        ballVy = vx * sin + ballVy * cos;
+    }
+
+    // Turns the ball's velocity by a random jitter angle from a table, in fixed-point
+    private void rotateBallFixed() {
+        if (jitterCos == null) {
+            jitterCos = new long[1 << FixedPoint.JITTER_BITS];
+            jitterSin = new long[1 << FixedPoint.JITTER_BITS];
+        }
+        if (jitterTableAngle != bounceJitter) {
+            FixedPoint.jitterTable(bounceJitter, jitterCos, jitterSin);
+            jitterTableAngle = bounceJitter;
+        }
+        int i = (int) (random.nextLong() >>> (64 - FixedPoint.JITTER_BITS));
+        long vx = FixedPoint.of(ballVx);
+        long vy = FixedPoint.of(ballVy);
+        ballVx = FixedPoint.toDouble(FixedPoint.multiply(vx, jitterCos[i]) - FixedPoint.multiply(vy, jitterSin[i]));
+        ballVy = FixedPoint.toDouble(FixedPoint.multiply(vx, jitterSin[i]) + FixedPoint.multiply(vy, jitterCos[i]));
+    }
+
+    // turns the ball by a random angle of up to bounceJitter
+    private void rotateBallRandomly() {
+        if (fixedPoint)
+            rotateBallFixed();
+        else
+            rotateBall(jitter());
+    }
+
+    // reflect the velocity across the x axis
+    private void bounceOffWall(boolean isTop) {
+        ballVy = -ballVy;
+        rotateBallRandomly();
+        keepOffVertical();
+        // the randomness must never send the ball back into the wall
+        if (isTop ? ballVy < 0 : ballVy > 0)
+            ballVy = -ballVy;
+    }
+
+    // reflect the velocity across the y axis
+    private void bounceOffPaddle(boolean isPlayer) {
+        ballVx = -ballVx;
+        rotateBallRandomly();
+        keepOffVertical();
+        // the randomness must never send the ball back into the paddle
+        if (isPlayer ? ballVx < 0 : ballVx > 0)
+            ballVx = -ballVx;
+        if (speedRamp && fixedPoint)
+            setBallSpeed(FixedPoint.toDouble(Math.min(FixedPoint.multiply(FixedPoint.of(ballSpeed), FIXED_SPEED_RAMP),
+                    FixedPoint.of(MAX_BALL_SPEED))));
+        else if (speedRamp)
+            setBallSpeed(Math.min(ballSpeed * SPEED_RAMP, MAX_BALL_SPEED));
+    }
+
+    // Called when the ball gets past a paddle. Returns the scoring events.
+    private int score(boolean playerMissed) {
+        resetBall();
+        if (playerMissed) {
+            // If ball hits the left of the screen (and not paddle), the player loses. the
+            // computer wins.
+            if (mode == NORMAL) {
+                computerScore++;
+                if (computerScore >= WINNING_SCORE) {
+                    // If computer has accumulated enough score to win the game, the game is over.
+                    isPlaying = false;
+                    return COMPUTER_SCORED | COMPUTER_WINS;
+                }
+                // Else, start a new round.
+                startRound();
+                return COMPUTER_SCORED;
+            }
+            // in challenge mode, the game ends as soon as the player loses once.
+            isPlaying = false;
+            return COMPUTER_SCORED | CHALLENGE_OVER;
+        }
+        // If ball hits the right of the screen (and not computerPaddle), the player
+        // wins.
+        playerScore++;
+        if (mode == NORMAL && playerScore >= WINNING_SCORE) {
+            isPlaying = false;
+            return PLAYER_SCORED | PLAYER_WINS;
+        }
+        startRound();
+        return PLAYER_SCORED;
+    }
+
+    // Returns the new y of a paddle at y moving with the given velocity.
+    private static int movePaddle(int y, int velocity) {
+        y += velocity;
+        // if the paddle is going off the screen, then move it back to the edge
+        if (y < 0) {
+            y = 0;
+        } else if (y > H - PADDLE_H) {
+            y = H - PADDLE_H;
+        }
+        return y;
+    }
+
+    // This method controlls the "algorithm" for the computer-controlled paddle.
+    // move the computer paddle towards the ball if ball is moving towards the
+    // computer paddle and the ball is on the right side of the screen.
+    private void updateComputerPaddleVelocity() {
+        if (computerAi != null) {
+            computerVelocity = computerAi.velocity(this, true);
+            return;
+        }
+        computerVelocity = HeuristicController.velocity(this, true, mode == NORMAL ? normalError : challengeError,
+                mode == NORMAL ? normalReactionX : challengeReactionX);
+    }
+
+    // If the ball is going too close to straight up or down, turn it to
+    // TURNED_FROM_VERTICAL from vertical, keeping it going the same way.
+    private void keepOffVertical() {
+        if (fixedPoint) {
+            long speed = FixedPoint.of(ballSpeed);
+            if (Math.abs(FixedPoint.of(ballVx)) >= FixedPoint.multiply(speed, FIXED_MIN_SIDEWAYS))
+                return;
+            ballVx = Math.copySign(FixedPoint.toDouble(FixedPoint.multiply(speed, FIXED_TURNED_SIDEWAYS)), ballVx);
+            ballVy = Math.copySign(FixedPoint.toDouble(FixedPoint.multiply(speed, FIXED_TURNED_UPWARDS)), ballVy);
+            return;
+        }
+        if (Math.abs(ballVx) >= ballSpeed * MIN_SIDEWAYS)
+            return;
+        ballVx = Math.copySign(ballSpeed * TURNED_SIDEWAYS, ballVx);
+        ballVy = Math.copySign(ballSpeed * TURNED_UPWARDS, ballVy);
+    }
+
+    // number of bytes writeTo() writes
+    public static final int SAVED_SIZE = 5 * 8 + 1 + 1 + 8 + 1 + 4 * 4 + 2 * 4 + 4 * 4 + 1 + 4 * 8 + 1 + 1 + 4 + 8 + 8;
+
+    // Writes everything about the match (except the seed, which never changes) to
+    // `buffer`, so it can be restored later with readFrom(). The balls of a chaos mode
+    // match are not written, so chaos mode matches can't be saved.
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putDouble(ballX).putDouble(ballY).putDouble(ballVx).putDouble(ballVy).putDouble(ballSpeed);
+        buffer.put((byte) (ballMoving ? 1 : 0)).put((byte) (speedRamp ? 1 : 0)).putDouble(bounceJitter);
+        buffer.put((byte) (fixedPoint ? 1 : 0));
+        buffer.putInt(playerY).putInt(playerVelocity).putInt(computerY).putInt(computerVelocity);
+        buffer.putInt(playerScore).putInt(computerScore);
+        buffer.putInt(normalError).putInt(challengeError).putInt(normalReactionX).putInt(challengeReactionX);
+        PredictiveAi ai = computerAi instanceof PredictiveAi ? (PredictiveAi) computerAi : null;
+        buffer.put((byte) (ai != null ? 1 : 0));
+        buffer.putDouble(ai != null ? ai.predictionError : 0);
+        buffer.putDouble(ai != null ? ai.targetY : 0);
+        buffer.putDouble(ai != null ? ai.lastVx : 0);
+        buffer.putDouble(ai != null ? ai.lastVy : 0);
+        buffer.put((byte) (mode == CHALLENGE ? 1 : 0)).put((byte) (isPlaying ? 1 : 0));
+        buffer.putInt(sleepTicks).putLong(elapsedTicks).putLong(random.state);
+    }
+
+    // Restores the match to how it was when writeTo() wrote `buffer`.
+    public void readFrom(ByteBuffer buffer) {
+        ballX = buffer.getDouble();
+        ballY = buffer.getDouble();
+        ballVx = buffer.getDouble();
+        ballVy = buffer.getDouble();
+        ballSpeed = buffer.getDouble();
+        ballMoving = buffer.get() != 0;
+        speedRamp = buffer.get() != 0;
+        bounceJitter = buffer.getDouble();
+        fixedPoint = buffer.get() != 0;
+        playerY = buffer.getInt();
+        playerVelocity = buffer.getInt();
+        computerY = buffer.getInt();
+        computerVelocity = buffer.getInt();
+        playerScore = buffer.getInt();
+        computerScore = buffer.getInt();
+        normalError = buffer.getInt();
+        challengeError = buffer.getInt();
+        normalReactionX = buffer.getInt();
+        challengeReactionX = buffer.getInt();
+        boolean hasAi = buffer.get() != 0;
+        double predictionError = buffer.getDouble();
+        double targetY = buffer.getDouble();
+        double lastVx = buffer.getDouble();
+        double lastVy = buffer.getDouble();
+        if (hasAi) {
+            // reuse the PredictiveAi there already is, so restoring allocates nothing
+            PredictiveAi ai = computerAi instanceof PredictiveAi ? (PredictiveAi) computerAi
+                    : new PredictiveAi(predictionError);
+            ai.predictionError = predictionError;
+            ai.targetY = targetY;
+            ai.lastVx = lastVx;
+            ai.lastVy = lastVy;
+            computerAi = ai;
+        } else if (computerAi instanceof PredictiveAi) {
+            computerAi = null;
+        } // any other controller isn't saved, so it is kept
+        mode = buffer.get() != 0 ? CHALLENGE : NORMAL;
+        isPlaying = buffer.get() != 0;
+        sleepTicks = buffer.getInt();
+        elapsedTicks = buffer.getLong();
+        random.state = buffer.getLong();
+    }
+
+    // Returns the time passed since the start of the challenge match in seconds
+    public long getElapsedSeconds() {
+        return elapsedTicks / TICKS_PER_SECOND;
+    }
+}
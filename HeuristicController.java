@@ -0,0 +1,51 @@
+/* HeuristicController is the original computer paddle algorithm: once the ball is
+coming towards the paddle and is past reactionX, move the paddle towards the ball.
+
+It only changes direction once the ball is more than `error` pixels past the
+edge of the paddle. If error is greater than 0, the algorithm will sometimes miss
+the ball.
+*/
+public class HeuristicController implements PaddleController {
+
+    public int error;
+    public int reactionX; // distance from the opponent's side of the field at which the paddle starts following
+
+    public HeuristicController(int error, int reactionX) {
+        this.error = error;
+        this.reactionX = reactionX;
+    }
+
+    public int velocity(GameState state, boolean isRight) {
+        return velocity(state, isRight, error, reactionX);
+    }
+
+    // The algorithm itself, also used by GameState for its built-in computer paddle.
+    public static int velocity(GameState state, boolean isRight, int error, int reactionX) {
+        int x = (int) state.ballX;
+        int y = (int) state.ballY;
+        int paddleY = isRight ? state.computerY : state.playerY;
+        int velocity = isRight ? state.computerVelocity : state.playerVelocity;
+
+        // the left paddle sees the field mirrored
+        boolean isComing = isRight ? state.ballVx > 0 : state.ballVx < 0;
+        boolean isPast = isRight ? x > reactionX : x + GameState.BALL_D < GameState.W - reactionX;
+        if (!isComing || !isPast) {
+            // If ball is moving away from paddle, stop the paddle.
+            return 0;
+        }
+
+        int paddleCy = (paddleY + GameState.PADDLE_H / 2); // center y coordinate of paddle
+        int ballCy = (y + GameState.BALL_D / 2); // center y coordinate of ball
+
+        // Only change direction if ball is sufficiently far away from paddle.
+        if (Math.abs(paddleCy - ballCy) > (GameState.PADDLE_H / 2 + error)) {
+            // If paddle is above ball, move paddle down, and vice versa.
+            if (paddleCy < ballCy) {
+                return GameState.PADDLE_SPEED;
+            } else if (paddleY > y) {
+                return -GameState.PADDLE_SPEED;
+            }
+        }
+        return velocity; // keep going the way it was going
+    }
+}
@@ -0,0 +1,100 @@
+/* Histogram counts how often each value (e.g. a duration in nanoseconds) was
+recorded, so percentiles like the median or the slowest 1% can be read back.
+
+Values are not stored one by one. They are counted in buckets that are twice as
+wide for every power of two, with SUB_BUCKETS buckets per power of two (like an
+HDR histogram), so any value up to Long.MAX_VALUE fits in a fixed array and a
+percentile read back is within about 6% of the real value.
+
+Several threads may record at the same time without locks: every bucket is an
+atomic counter, so record() is a few atomic additions and never allocates.
+*/
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS; // buckets per power of two
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // Counts `value`. Negative values are counted as 0.
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucket(value));
+        sum.addAndGet(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value))
+            ;
+    }
+
+    // Moves everything counted so far into `other`, leaving this histogram empty.
+    // Values recorded while moving end up in exactly one of the two.
+    public void moveTo(Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.getAndSet(i, 0);
+            if (count != 0)
+                other.counts.addAndGet(i, count);
+        }
+        other.sum.addAndGet(sum.getAndSet(0));
+        long m = max.getAndSet(0);
+        long otherMax;
+        while (m > (otherMax = other.max.get()) && !other.max.compareAndSet(otherMax, m))
+            ;
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            count += counts.get(i);
+        return count;
+    }
+
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    // Returns the value that `percent` percent of the recorded values are at or
+    // below (e.g. 50 for the median), or 0 if nothing was recorded.
+    public long percentile(double percent) {
+        long count = count();
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(count * percent / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(middle(i), max.get()); // the top bucket can't be above the max
+        }
+        return max.get();
+    }
+
+    // Returns the bucket `value` is counted in. Values below SUB_BUCKETS get a bucket
+    // each; after that each power of two is split into SUB_BUCKETS buckets.
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    // Returns the value in the middle of a bucket
+    private static long middle(int bucket) {
+        int group = bucket / SUB_BUCKETS;
+        long sub = bucket % SUB_BUCKETS;
+        if (group == 0)
+            return sub;
+        long width = 1L << (group - 1);
+        return ((SUB_BUCKETS + sub) << (group - 1)) + width / 2;
+    }
+}
@@ -5,27 +5,67 @@ It displays big text like a title screen as well as a button to start the game.
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.RoundRectangle2D;
-import java.util.function.BiPredicate;
 
 public class HomeScreen {
 
     public boolean isVisible;
     public boolean isInstructions;
     private String title;
-    private PongBall ball;
     private String buttonText;
     private String subtitle;
 
+    private static final Font subtitleFont = new Font("Arial", Font.ITALIC, 16);
+    private static final Font bestTimesFont = new Font("Arial", Font.PLAIN, 14);
+    private static final String bestTimesText = "Best challenge times";
+    private static final int bestTimeSpacing = 80; // distance between the best times
+    private static final int buttonFontSize = 16;
+    private static final Font buttonFont = new Font("Arial", Font.PLAIN, buttonFontSize);
+    private static final int buttonHeight = 50;
+    private static final String b2Text = "Challenge Mode"; // button 2 text
+    private static final String b3Text = "Chaos Mode"; // button 3 text
+    // the button 2 text pulses between font sizes 16 and 21, so make those fonts once
+    private static final Font[] b2Fonts = new Font[6];
+    static {
+        for (int i = 0; i < b2Fonts.length; i++)
+            b2Fonts[i] = new Font("Arial", Font.PLAIN, 16 + i);
+    }
+
+    // Positions of everything on the screen, worked out by layOut() whenever the
+    // text changes.
+    private final TextLayoutCache layouts = new TextLayoutCache();
+    private boolean isLaidOut;
+    private Font titleFont;
+    private int titleX, titleY;
+    private TextLayoutCache.Layout subtitleLayout;
+    private int subtitleX, subtitleY;
+    private RoundRectangle2D buttonRectangle;
+    private int buttonTextX, buttonTextY;
+    private int[] b2Widths = new int[b2Fonts.length];
+    private int b2Width; // width of button 2 text in the last frame
+    private int button2Y;
+    private int b3Width;
+    private int button3Y;
+    private int b2Top, b2Bottom; // top and bottom of button 2 text at its biggest
+    private int widestB2Width;
+
     private int buttonY;
-    private BiPredicate<Integer, Integer> b2IsPressed;
+    private int bestTimesX; // x of the best times heading
     ChallengeInstructions instructions = new ChallengeInstructions();
+    Leaderboard leaderboard; // its best times are shown at the bottom, if it isn't null
+
+    // What drawStatic() drew last, so GamePanel can tell when its picture of the
+    // screen is out of date (see isChanged())
+    private int textVersion; // goes up every time the text changes
+    private int drawnTextVersion = -1;
+    private boolean drawnVisible;
+    private boolean drawnInstructions;
+    private String[] drawnBestTimes;
 
     // constructor creates ball at given location with given dimensions
-    public HomeScreen(String text, PongBall ball, String buttonText) {
+    public HomeScreen(String text, String buttonText) {
         isVisible = true;
         isInstructions = false;
         this.title = text;
-        this.ball = ball;
         this.buttonText = buttonText;
         subtitle = "";
     }
@@ -36,6 +76,8 @@ public class HomeScreen {
         this.title = titleText;
         this.buttonText = buttonText;
         this.subtitle = subtitle;
+        isLaidOut = false; // measure the new text before drawing it
+        textVersion++;
         isVisible = true;
     }
 
@@ -49,103 +91,189 @@ public class HomeScreen {
         isVisible = false;
     }
 
+    // Measures and positions the title, subtitle and buttons. This only has to happen
+    // again when the text changes, not every frame.
+    private void layOut(Graphics g) {
+        layouts.clear();
+
+        // Title
+        boolean subtitleExists = subtitle.length() > 0;
+        subtitleLayout = layouts.layout(g, subtitle, subtitleFont);
+        int subtitleHeight = subtitleExists ? subtitleLayout.height : 0;
+
+        int numChars = title.length();
+        int anticipatedTitleWidth = GamePanel.W / 2;
+        int widthPerChar = anticipatedTitleWidth / numChars;
+        titleFont = new Font("Arial", Font.PLAIN, (widthPerChar + 20));
+        // Get the width of the text so we can center it on screen.
+        TextLayoutCache.Layout titleLayout = layouts.layout(g, title, titleFont);
+        titleX = GamePanel.W / 2 - titleLayout.width / 2;
+        titleY = GamePanel.H / 2 - titleLayout.height / 2;
+        if (subtitleExists)
+            titleY -= (subtitleHeight + titleLayout.height / 2);
+
+        // Subtitle
+        subtitleY = GamePanel.H / 2;
+        subtitleX = GamePanel.W / 2 - subtitleLayout.width / 2;
+
+        // pseudobutton
+        int marginTop = 20; // margin between title and button
+        int marginTopSubtitle = 10; // margin between subtitle and button
+        buttonY = subtitleExists ? subtitleY + subtitleLayout.height + marginTopSubtitle
+                : titleY + titleLayout.height + marginTop;
+
+        int paddingX = 10; // padding between button and text
+        TextLayoutCache.Layout buttonLayout = layouts.layout(g, buttonText, buttonFont);
+        buttonTextX = GamePanel.W / 2 - buttonLayout.width / 2;
+        buttonTextY = buttonY + buttonHeight / 2 + buttonFontSize / 2 - 4;
+        int buttonWidth = buttonLayout.width + 2 * paddingX;
+
+        int borderRadius = 10; // radius of rounded corners of the button
+        buttonRectangle = new RoundRectangle2D.Float(GamePanel.W / 2 - buttonWidth / 2, buttonY,
+                buttonWidth, buttonHeight, borderRadius, borderRadius);
+
+        // pseudobutton 2: measure the text once for every font size of the animation
+        for (int i = 0; i < b2Fonts.length; i++)
+            b2Widths[i] = layouts.layout(g, b2Text, b2Fonts[i]).width;
+        button2Y = buttonY + buttonHeight + 40;
+        FontMetrics biggest = layouts.metrics(g, b2Fonts[b2Fonts.length - 1]);
+        b2Top = button2Y - biggest.getAscent();
+        b2Bottom = button2Y + biggest.getDescent();
+        widestB2Width = b2Widths[b2Fonts.length - 1];
+
+        // pseudobutton 3
+        b3Width = layouts.layout(g, b3Text, b2Fonts[0]).width;
+        button3Y = button2Y + 40;
+
+        bestTimesX = GamePanel.W / 2 - layouts.layout(g, bestTimesText, bestTimesFont).width / 2;
+
+        isLaidOut = true;
+    }
+
     // called frequently from the GamePanel class
     // draws the current home screen content to the screen if it is visible
     public void draw(Graphics g) {
+        drawStatic(g);
+        drawAnimated(g);
+    }
+
+    // Draws everything on the screen except the pulsing button 2, which only changes
+    // when isChanged() says so
+    public void drawStatic(Graphics g) {
+        drawnVisible = isVisible;
+        drawnInstructions = isInstructions;
+        drawnTextVersion = textVersion;
+        drawnBestTimes = leaderboard != null ? leaderboard.getBestTimes() : null;
         if (isVisible) {
             if (isInstructions) {
                 instructions.draw(g);
             } else {
+                if (!isLaidOut)
+                    layOut(g);
+
                 final Color bgColor = Color.black;
                 g.setColor(bgColor);
                 g.fillRect(0, 0, GamePanel.W, GamePanel.H);
                 g.setColor(CustomColors.emerald400);
 
                 // Draw title
-                boolean subtitleExists = subtitle.length() > 0;
-                Font subtitleFont = new Font("Arial", Font.ITALIC, 16);
-                FontMetrics subMetrics = g.getFontMetrics(subtitleFont);
-                int subtitleHeight = subtitleExists ? subMetrics.getHeight() : 0;
-
-                int numChars = title.length();
-                int anticipatedTitleWidth = GamePanel.W / 2;
-                int widthPerChar = anticipatedTitleWidth / numChars;
-                // Get the FontMetrics so we can determine the width of the text so we can
-                // center it on screen.
-                Font titleFont = new Font("Arial", Font.PLAIN, (widthPerChar + 20));
                 g.setFont(titleFont);
-                FontMetrics titleMetrics = g.getFontMetrics(titleFont);
-                int titleWidth = titleMetrics.stringWidth(title);
-
-                int titleY = GamePanel.H / 2 - titleMetrics.getHeight() / 2;
-                if (subtitleExists)
-                    titleY -= (subtitleHeight + titleMetrics.getHeight() / 2);
-                g.drawString(title, GamePanel.W / 2 - titleWidth / 2, titleY);
+                g.drawString(title, titleX, titleY);
 
                 // Draw subtitle
-                int subtitleY = GamePanel.H / 2;
-                if (subtitleExists) {
+                if (subtitle.length() > 0) {
                     g.setFont(subtitleFont);
                     g.setColor(CustomColors.emerald500);
-                    int subtitleX = GamePanel.W / 2 - subMetrics.stringWidth(subtitle) / 2;
                     g.drawString(subtitle, subtitleX, subtitleY);
                 }
 
                 // pseudobutton
-                int buttonHeight = 50;
-                int marginTop = 20; // margin between title and button
-                int marginTopSubtitle = 10; // margin between subtitle and button
-                buttonY = subtitleExists ? subtitleY + subMetrics.getHeight() + marginTopSubtitle
-                        : titleY + titleMetrics.getHeight() + marginTop;
-
                 g.setColor(CustomColors.emerald300);
-                int buttonFontSize = 16;
-                Font buttonFont = new Font("Arial", Font.PLAIN, buttonFontSize);
-                int paddingX = 10; // padding between button and text
                 g.setFont(buttonFont);
+                Graphics2D graphics2 = (Graphics2D) g;
+                graphics2.draw(buttonRectangle);
+                g.drawString(this.buttonText, buttonTextX, buttonTextY);
 
-                FontMetrics buttonMetrics = g.getFontMetrics(buttonFont);
-                int buttonTextWidth = buttonMetrics.stringWidth(buttonText);
-                int buttonTextY = buttonY + buttonHeight / 2 + buttonFontSize / 2 - 4;
-                int buttonWidth = buttonTextWidth + 2 * paddingX;
+                // pseudobutton 3
+                g.setColor(CustomColors.emerald500);
+                g.setFont(b2Fonts[0]);
+                g.drawString(b3Text, GamePanel.W / 2 - b3Width / 2, button3Y);
 
-                Graphics2D graphics2 = (Graphics2D) g;
-                int borderRadius = 10; // radius of rounded corners of the button
-                RoundRectangle2D roundedRectangle = new RoundRectangle2D.Float(GamePanel.W / 2 - buttonWidth / 2,
-                        buttonY,
-                        buttonWidth, buttonHeight, borderRadius, borderRadius);
-                graphics2.draw(roundedRectangle);
-                g.drawString(this.buttonText, GamePanel.W / 2 - buttonTextWidth / 2, buttonTextY);
-
-                // pseudobutton 2
-                String b2Text = "Challenge Mode"; // button 2 text
-                int period = 2000; // We want the animation to repeat itself every 2000 milliseconds.
-                long t = System.currentTimeMillis() % period / 2; // x goes from 0 to 1000
-                int b2FontSize = Math.abs(500 - (int) t) / 100 + 16; // font size of button 2 text
-                Font b2Font = new Font("Arial", Font.PLAIN, b2FontSize); // button 2 font
-                g.setFont(b2Font);
-                FontMetrics b2Metrics = g.getFontMetrics(b2Font); // button 2 text metrics
-                int b2Width = b2Metrics.stringWidth(b2Text); // button 2 text width
-                int button2Y = buttonY + buttonHeight + 40;
-                g.drawString(b2Text, GamePanel.W / 2 - b2Width / 2, button2Y);
-
-                b2IsPressed = (x, y) -> {
-                    // arguments are x and y coordinates of the mouse
-                    // returns true if the mouse is in the button
-                    return Math.abs(x - GamePanel.W / 2) < b2Width / 2 && Math.abs(y - button2Y) < buttonHeight / 2;
-                };
+                drawBestTimes(g);
             }
         }
     }
 
-    public void mousePressed(MouseEvent e, VoidFunction startNormalMode, VoidFunction startChallenge) {
+    // Draws button 2 at its size for this moment
+    public void drawAnimated(Graphics g) {
+        if (!isVisible || isInstructions || !isLaidOut)
+            return;
+        // pseudobutton 2
+        int b2Size = animationStep();
+        g.setColor(CustomColors.emerald300);
+        g.setFont(b2Fonts[b2Size]);
+        b2Width = b2Widths[b2Size]; // button 2 text width
+        g.drawString(b2Text, GamePanel.W / 2 - b2Width / 2, button2Y);
+    }
+
+    // Returns how big button 2 is right now (0 to 5), which decides what
+    // drawAnimated() draws
+    public int animationStep() {
+        int period = 2000; // We want the animation to repeat itself every 2000 milliseconds.
+        long t = System.currentTimeMillis() % period / 2; // x goes from 0 to 1000
+        return Math.abs(500 - (int) t) / 100; // how much bigger than the smallest font size
+    }
+
+    // Sets `bounds` to where drawAnimated() can draw, or to an empty rectangle if it
+    // draws nothing
+    public void getAnimatedBounds(Rectangle bounds) {
+        if (!isVisible || isInstructions || !isLaidOut)
+            bounds.setBounds(0, 0, 0, 0);
+        else
+            bounds.setBounds(GamePanel.W / 2 - widestB2Width / 2 - 1, b2Top, widestB2Width + 2, b2Bottom - b2Top);
+    }
+
+    // Returns true if drawStatic() would draw something different from the last time
+    // it was called
+    public boolean isChanged() {
+        return isVisible != drawnVisible || isInstructions != drawnInstructions || textVersion != drawnTextVersion
+                || (leaderboard != null && leaderboard.getBestTimes() != drawnBestTimes);
+    }
+
+    // Draws the best challenge mode times in a row at the bottom. They are already
+    // text, so this never waits for the leaderboard's files.
+    private void drawBestTimes(Graphics g) {
+        if (leaderboard == null)
+            return;
+        String[] bestTimes = leaderboard.getBestTimes();
+        if (bestTimes.length == 0)
+            return;
+        g.setColor(CustomColors.emerald600);
+        g.setFont(bestTimesFont);
+        g.drawString(bestTimesText, bestTimesX, GamePanel.H - 40);
+        int x = GamePanel.W / 2 - bestTimes.length * bestTimeSpacing / 2;
+        for (int i = 0; i < bestTimes.length; i++)
+            g.drawString(bestTimes[i], x + i * bestTimeSpacing + 10, GamePanel.H - 18);
+    }
+
+    // returns true if the mouse (at x and y) is in button 2
+    private boolean b2IsPressed(int x, int y) {
+        return Math.abs(x - GamePanel.W / 2) < b2Width / 2 && Math.abs(y - button2Y) < buttonHeight / 2;
+    }
+
+    // returns true if the mouse (at x and y) is in button 3
+    private boolean b3IsPressed(int x, int y) {
+        return Math.abs(x - GamePanel.W / 2) < b3Width / 2 && Math.abs(y - button3Y) < buttonHeight / 2;
+    }
+
+    public void mousePressed(MouseEvent e, VoidFunction startNormalMode, VoidFunction startChallenge,
+            VoidFunction startChaos) {
         if (isVisible) {
             if (isInstructions) {
                 if (instructions.isClicked(e.getX(), e.getY())) {
                     // Start challenge mode.
                     hide();
                     startChallenge.run();
-                    ball.start();
                 }
             } else {
                 // check if the mouse is in the button when pressed
@@ -153,10 +281,12 @@ public class HomeScreen {
                         && e.getY() > buttonY && e.getY() < buttonY + 50) {
                     hide();
                     startNormalMode.run();
-                    ball.start();
-                } else if (b2IsPressed.test(e.getX(), e.getY())) {
+                } else if (b2IsPressed(e.getX(), e.getY())) {
                     // Open instructions screen
                     isInstructions = true;
+                } else if (b3IsPressed(e.getX(), e.getY())) {
+                    hide();
+                    startChaos.run();
                 }
             }
         }
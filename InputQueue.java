@@ -0,0 +1,50 @@
+/* InputQueue carries input from the Swing thread (key presses and menu clicks) to
+the game thread without locks.
+
+The Swing thread adds commands as they happen and the game thread takes them at
+the start of its next tick, so the GameState is only ever changed by the game
+thread. It is a fixed size ring of ints, so adding and taking commands never
+allocates. Only one thread may add and only one thread may take: the head is
+only written by the taking thread and the tail only by the adding thread, and
+both are volatile so each thread sees the other's progress.
+*/
+public class InputQueue {
+
+    public static final int EMPTY = 0; // returned by peek() and poll() when there are no commands
+    public static final int PRESS_UP = 1;
+    public static final int PRESS_DOWN = 2;
+    public static final int RELEASE = 3;
+    public static final int START_NORMAL = 4;
+    public static final int START_CHALLENGE = 5;
+    public static final int START_CHAOS = 6;
+
+    private static final int SIZE = 256; // must be a power of 2
+    private final int[] commands = new int[SIZE];
+    private volatile long head; // number of commands taken
+    private volatile long tail; // number of commands added
+
+    // Adds a command. Returns false (dropping it) if the queue is full, which only
+    // happens if the game thread has stopped taking commands.
+    public boolean offer(int command) {
+        long t = tail;
+        if (t - head == SIZE)
+            return false;
+        commands[(int) t & (SIZE - 1)] = command;
+        tail = t + 1; // the volatile write makes the command visible to the game thread
+        return true;
+    }
+
+    // Returns the oldest command without taking it, or EMPTY
+    public int peek() {
+        long h = head;
+        return h == tail ? EMPTY : commands[(int) h & (SIZE - 1)];
+    }
+
+    // Takes the oldest command, or returns EMPTY
+    public int poll() {
+        int command = peek();
+        if (command != EMPTY)
+            head = head + 1;
+        return command;
+    }
+}
@@ -0,0 +1,51 @@
+/* KeyboardController lets a person play a paddle with the up and down arrow keys.
+
+Key events arrive on the Swing thread, but the paddle is moved by the game
+thread, so key presses are put in an InputQueue and only change the velocity
+when the game thread applies them at the start of a tick.
+*/
+import java.awt.event.*;
+
+public class KeyboardController implements PaddleController {
+
+    private final InputQueue input; // where key presses are sent
+    private int velocity; // only used by the game thread
+
+    public KeyboardController(InputQueue input) {
+        this.input = input;
+    }
+
+    // called from GamePanel when any keyboard input is detected
+    // queues a change of the direction of the paddle based on user input
+    public void keyPressed(KeyEvent e) {
+        if (e.getKeyCode() == KeyEvent.VK_UP) {
+            input.offer(InputQueue.PRESS_UP);
+        }
+
+        if (e.getKeyCode() == KeyEvent.VK_DOWN) {
+            input.offer(InputQueue.PRESS_DOWN);
+        }
+    }
+
+    // called from GamePanel when any key is released
+    // Makes the paddle stop moving in that direction
+    public void keyReleased(KeyEvent e) {
+        if (e.getKeyCode() == KeyEvent.VK_UP || e.getKeyCode() == KeyEvent.VK_DOWN) {
+            input.offer(InputQueue.RELEASE);
+        }
+    }
+
+    // called by the game thread with a key command taken from the queue
+    public void apply(int command) {
+        if (command == InputQueue.PRESS_UP)
+            velocity = -GameState.PADDLE_SPEED;
+        else if (command == InputQueue.PRESS_DOWN)
+            velocity = GameState.PADDLE_SPEED;
+        else if (command == InputQueue.RELEASE)
+            velocity = 0;
+    }
+
+    public int velocity(GameState state, boolean isRight) {
+        return velocity;
+    }
+}
@@ -0,0 +1,296 @@
+/* Leaderboard keeps the survival time of every challenge mode match ever played,
+and the TOP longest ones.
+
+Every result is appended to a log file and never changed. Results are written by
+a background thread in batches: it waits up to FLUSH_MS for more results, then
+writes them all and forces them to disk with one fsync, so many results cost one
+fsync and add() never waits for the disk. Each record has a checksum, so a record
+only half written when the computer crashed is noticed (and cut off) the next time
+the log is opened.
+
+Reading millions of records on every start would be slow, so after every batch
+the TOP results are also written to a small index file, with how much of the log
+they include. On start only the index and the part of the log after it are read.
+If the index is missing or damaged, the whole log is read and the index made again.
+
+The best times are kept in memory as text, ready to be drawn, so the home screen
+never waits for the disk.
+
+Log file (big endian):   long magic, int version, then records of
+                         long end time (ms since 1970), long ticks survived, int crc32
+Index file (big endian): long magic, int version, long log length, long record count,
+                         int count, count * (long ticks, long end time), int crc32
+*/
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+public class Leaderboard implements Closeable {
+
+    public static final long LOG_MAGIC = 0x504f4e474c4f4700L; // "PONGLOG\0"
+    public static final long INDEX_MAGIC = 0x504f4e4749445800L; // "PONGIDX\0"
+    public static final int VERSION = 1;
+    public static final int TOP = 100; // results kept in the index
+    public static final int SHOWN = 5; // results shown on the home screen
+    public static final long FLUSH_MS = 200; // longest a result waits to be written
+    private static final int HEADER_SIZE = 8 + 4;
+    private static final int RECORD_SIZE = 8 + 8 + 4;
+    private static final long[] STOP = new long[0]; // tells the writer thread to finish
+
+    private final Path logFile;
+    private final Path indexFile;
+    private final FileChannel log;
+    private long logLength;
+    private long runs; // records in the log
+    // the TOP longest survival times, longest first, and when they ended
+    private final long[] topTicks = new long[TOP];
+    private final long[] topTimes = new long[TOP];
+    private int topCount;
+    private volatile String[] bestTimes; // the first SHOWN, as text
+
+    private final LinkedBlockingQueue<long[]> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+    private final CRC32 crc = new CRC32();
+    public boolean wasIndexUsed; // true if the index was good when this was opened
+
+    // Opens (or creates) the leaderboard in `directory`
+    public Leaderboard(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        logFile = directory.resolve("challenge.log");
+        indexFile = directory.resolve("challenge.idx");
+        log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (log.size() < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putLong(LOG_MAGIC).putInt(VERSION).flip();
+            log.truncate(0);
+            log.write(header, 0);
+            log.force(true);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            log.read(header, 0);
+            if (header.getLong(0) != LOG_MAGIC || header.getInt(8) != VERSION)
+                throw new IOException(logFile + " is not a leaderboard log");
+        }
+
+        wasIndexUsed = readIndex();
+        if (!wasIndexUsed) {
+            logLength = HEADER_SIZE;
+            runs = 0;
+            topCount = 0;
+        }
+        readLog(); // whatever the index doesn't include
+        publish();
+        if (!wasIndexUsed)
+            writeIndex();
+
+        writer = new Thread(this::write, "leaderboard writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Adds a challenge mode result. Returns straight away; the result is on disk
+    // within about FLUSH_MS.
+    public void add(long ticksSurvived) {
+        queue.add(new long[] { System.currentTimeMillis(), ticksSurvived });
+    }
+
+    // The best survival times as text, best first. Never waits for the disk.
+    public String[] getBestTimes() {
+        return bestTimes;
+    }
+
+    // the number of results stored
+    public synchronized long getRunCount() {
+        return runs;
+    }
+
+    // the longest survival time in ticks, or 0 if there are none
+    public synchronized long getBestTicks() {
+        return topCount == 0 ? 0 : topTicks[0];
+    }
+
+    // Writes the results still waiting and closes the files
+    public void close() throws IOException {
+        queue.add(STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    // The writer thread: writes results in batches until close()
+    private void write() {
+        ArrayList<long[]> results = new ArrayList<>();
+        try {
+            while (true) {
+                results.clear();
+                results.add(queue.take());
+                // wait a little for more, so they share the fsync
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_MS);
+                long[] result;
+                while (results.get(results.size() - 1) != STOP
+                        && (result = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null)
+                    results.add(result);
+                queue.drainTo(results);
+                boolean isStopping = results.remove(STOP);
+                append(results);
+                if (isStopping)
+                    return;
+            }
+        } catch (InterruptedException e) {
+            // stopping
+        } catch (IOException e) {
+            System.err.println("Could not save leaderboard: " + e);
+        }
+    }
+
+    // appends `results` to the log, forces them to disk, then updates the top results
+    // and the index
+    private void append(ArrayList<long[]> results) throws IOException {
+        if (results.isEmpty())
+            return;
+        long position = logLength;
+        for (long[] result : results) {
+            if (batch.remaining() < RECORD_SIZE) {
+                batch.flip();
+                while (batch.hasRemaining())
+                    position += log.write(batch, position);
+                batch.clear();
+            }
+            int start = batch.position();
+            batch.putLong(result[0]).putLong(result[1]);
+            crc.reset();
+            crc.update(batch.array(), start, 16);
+            batch.putInt((int) crc.getValue());
+        }
+        batch.flip();
+        while (batch.hasRemaining())
+            position += log.write(batch, position);
+        batch.clear();
+        log.force(false);
+
+        synchronized (this) {
+            logLength = position;
+            runs += results.size();
+            for (long[] result : results)
+                offer(result[1], result[0]);
+        }
+        publish();
+        writeIndex();
+    }
+
+    // Adds a result to the top results if it is good enough
+    private void offer(long ticks, long time) {
+        if (topCount == TOP && ticks <= topTicks[TOP - 1])
+            return;
+        int i = Math.min(topCount, TOP - 1);
+        while (i > 0 && topTicks[i - 1] < ticks) {
+            topTicks[i] = topTicks[i - 1];
+            topTimes[i] = topTimes[i - 1];
+            i--;
+        }
+        topTicks[i] = ticks;
+        topTimes[i] = time;
+        topCount = Math.min(topCount + 1, TOP);
+    }
+
+    // makes the text of the best times
+    private synchronized void publish() {
+        String[] lines = new String[Math.min(topCount, SHOWN)];
+        for (int i = 0; i < lines.length; i++) {
+            long seconds = topTicks[i] / GameState.TICKS_PER_SECOND;
+            lines[i] = String.format("%d. %02d:%02d", i + 1, seconds / 60, seconds % 60);
+        }
+        bestTimes = lines;
+    }
+
+    // Reads the records from logLength to the end of the log. A damaged record at the
+    // end (half written in a crash) and anything after it is cut off.
+    private void readLog() throws IOException {
+        long size = log.size();
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+        long position = logLength;
+        boolean isDamaged = false;
+        while (position < size && !isDamaged) {
+            buffer.clear();
+            log.read(buffer, position);
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                int start = buffer.position();
+                long time = buffer.getLong();
+                long ticks = buffer.getLong();
+                int checksum = buffer.getInt();
+                crc.reset();
+                crc.update(buffer.array(), start, 16);
+                if ((int) crc.getValue() != checksum) {
+                    isDamaged = true;
+                    break;
+                }
+                offer(ticks, time);
+                runs++;
+                position += RECORD_SIZE;
+            }
+            if (buffer.remaining() > 0 && position + buffer.remaining() >= size)
+                break; // only part of a record is left
+        }
+        logLength = position;
+        if (size > position) {
+            log.truncate(position);
+            log.force(true);
+        }
+    }
+
+    // Reads the index into the top results. Returns false if it is missing, damaged or
+    // says more of the log than there is.
+    private boolean readIndex() throws IOException {
+        if (!Files.exists(indexFile))
+            return false;
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+        if (index.remaining() < 8 + 4 + 8 + 8 + 4 + 4 || index.getLong() != INDEX_MAGIC || index.getInt() != VERSION)
+            return false;
+        long length = index.getLong();
+        long count = index.getLong();
+        int top = index.getInt();
+        if (top < 0 || top > TOP || index.remaining() != top * 16 + 4 || length > log.size())
+            return false;
+        crc.reset();
+        crc.update(index.array(), 0, index.limit() - 4);
+        if ((int) crc.getValue() != index.getInt(index.limit() - 4))
+            return false;
+        logLength = length;
+        runs = count;
+        topCount = top;
+        for (int i = 0; i < top; i++) {
+            topTicks[i] = index.getLong();
+            topTimes[i] = index.getLong();
+        }
+        return true;
+    }
+
+    // Writes the index to a new file and then puts it in place of the old one, so
+    // the index on disk is never half written
+    private synchronized void writeIndex() throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(8 + 4 + 8 + 8 + 4 + topCount * 16 + 4);
+        index.putLong(INDEX_MAGIC).putInt(VERSION).putLong(logLength).putLong(runs).putInt(topCount);
+        for (int i = 0; i < topCount; i++)
+            index.putLong(topTicks[i]).putLong(topTimes[i]);
+        crc.reset();
+        crc.update(index.array(), 0, index.position());
+        index.putInt((int) crc.getValue());
+        Path temporary = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        Files.write(temporary, index.array());
+        Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,69 @@
+/* LeaderboardCheck tests Leaderboard with a lot of results.
+
+It adds `runs` random results to a new leaderboard in a temporary directory, then
+checks that opening it again gives the same best times and count: with the index
+(timing how long that takes), without it (reading the whole log), and after a
+crash left half a record at the end of the log.
+
+Run with: java LeaderboardCheck [runs=2000000]
+Exits with status 1 if anything was lost.
+*/
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class LeaderboardCheck {
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        Path directory = Files.createTempDirectory("leaderboard");
+        boolean isOk = true;
+
+        Leaderboard leaderboard = new Leaderboard(directory);
+        MatchRandom random = new MatchRandom(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+            // most players last about 20 seconds, a few much longer
+            leaderboard.add((long) (-Math.log(1 - random.nextDouble()) * 20 * GameState.TICKS_PER_SECOND));
+        leaderboard.close();
+        System.out.printf("added %,d results in %.0f ms, log is %,d bytes%n", runs, (System.nanoTime() - start) / 1e6,
+                Files.size(directory.resolve("challenge.log")));
+        String[] expected = leaderboard.getBestTimes();
+
+        isOk &= reopen("with the index", directory, runs, expected, true);
+        Files.delete(directory.resolve("challenge.idx"));
+        isOk &= reopen("without the index", directory, runs, expected, false);
+
+        // a crash in the middle of writing a record, after the index was written
+        try (FileChannel log = FileChannel.open(directory.resolve("challenge.log"), StandardOpenOption.APPEND)) {
+            log.write(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5, 6, 7 }));
+        }
+        isOk &= reopen("after a torn write", directory, runs, expected, true);
+
+        try (var files = Files.list(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+        directory.toFile().delete();
+        System.out.println(isOk ? "nothing lost" : "RESULTS LOST");
+        if (!isOk)
+            System.exit(1);
+    }
+
+    // Opens the leaderboard and checks its count and best times
+    static boolean reopen(String name, Path directory, int runs, String[] expected, boolean isIndexExpected)
+            throws Exception {
+        long start = System.nanoTime();
+        Leaderboard leaderboard = new Leaderboard(directory);
+        double ms = (System.nanoTime() - start) / 1e6;
+        boolean isOk = leaderboard.getRunCount() == runs && Arrays.equals(leaderboard.getBestTimes(), expected)
+                && leaderboard.wasIndexUsed == isIndexExpected;
+        System.out.printf("opened %-18s in %7.1f ms: %,d results, best %s%s%n", name, ms, leaderboard.getRunCount(),
+                String.join(" ", leaderboard.getBestTimes()), isOk ? "" : "  WRONG");
+        leaderboard.close();
+        return isOk;
+    }
+}
@@ -0,0 +1,271 @@
+/* Lockstep runs one side of a two player match over the network.
+
+Both computers simulate the whole match themselves and only send each other their
+own paddle's input for every tick. A match is completely decided by its seed and
+the input of both paddles (in fixed-point mode, on every computer), so as long as
+both sides use the same input for every tick they stay exactly the same.
+
+The other player's input for a tick arrives a little later than the tick is
+played, so instead of waiting for it the tick is played with a guess: the other
+paddle keeps doing what it was doing ("prediction"). The state before every tick
+is kept for the last MAX_ROLLBACK_TICKS ticks. When the real input arrives and
+differs from the guess, the state is put back to before that tick and every tick
+since is played again with the real input ("rollback"). If the other side is more
+than MAX_ROLLBACK_TICKS ticks behind, this side stops and waits for it.
+
+Every CHECKSUM_TICKS ticks, once both inputs for everything before are known,
+each side sends the other a checksum of its state, so a desync (the two sides no
+longer being the same) is noticed instead of silently playing two different
+matches.
+
+Input for a tick is one byte: the paddle's direction + 1 (UP, NONE, DOWN become
+0, 1, 2), plus START if the player asked for a new match. A new match starts on
+the tick where either input has START and no match is being played, so both
+sides start it on the same tick.
+
+Only the game thread uses a Lockstep. It doesn't do any networking itself; see
+NetChannel for that.
+*/
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+public class Lockstep {
+
+    public static final int MAX_ROLLBACK_TICKS = 30; // how far the other side may fall behind (half a second)
+    public static final int CHECKSUM_TICKS = GameState.TICKS_PER_SECOND; // how often states are compared
+    public static final int START = 4; // input bit: start a new match
+    private static final int DIRECTION = 3; // input bits: the direction + 1
+    private static final int SLOTS = 64; // ring size, more than twice MAX_ROLLBACK_TICKS
+    private static final int TIME_SYNC_TICKS = 20; // wait at most one tick this often to let the other side catch up
+
+    public final GameState state;
+    public final boolean isLeft; // true if this side plays the left paddle
+
+    private long tick; // the next tick to play
+    private final int[] localInputs = new int[SLOTS];
+    private final int[] remoteInputs = new int[SLOTS]; // the real input, or the guess used if not known yet
+    private long confirmedTick = -1; // the other side's input is known for every tick up to this one
+    private long rollbackFrom = Long.MAX_VALUE; // the first tick that was played with a wrong guess
+    private final ByteBuffer[] saved = new ByteBuffer[SLOTS]; // the state before each of the last ticks
+
+    // checksums of this side's states (state before tick checksumTicks[i]) and the
+    // last one the other side sent
+    private final long[] checksumTicks = new long[8];
+    private final int[] checksums = new int[8];
+    private long checkedTick; // the last tick whose checksum was worked out
+    private long remoteChecksumTick = -1;
+    private int remoteChecksum;
+    private final CRC32 crc = new CRC32();
+
+    // what the other side last said about itself, for time sync
+    private long remoteTick;
+    private long remoteAdvantage;
+    private long lastWaitTick = -TIME_SYNC_TICKS;
+
+    // measurements
+    public final Histogram rollbackDepth = new Histogram(); // ticks played again per tick (usually 0)
+    public final Histogram resimulationNs = new Histogram(); // nanoseconds spent playing ticks again per tick
+    public long rollbacks; // number of ticks that needed a rollback
+    public long stalls; // number of ticks spent waiting for the other side
+    public long desyncTick = -1; // the first tick where the two sides were found to differ, or -1
+
+    // Starts lockstep on `state`, a match that no tick has been played of yet. Both
+    // sides must start from the same state (the same seed and settings).
+    public Lockstep(GameState state, boolean isLeft) {
+        this.state = state;
+        this.isLeft = isLeft;
+        state.fixedPoint = true;
+        for (int i = 0; i < SLOTS; i++)
+            saved[i] = ByteBuffer.allocate(GameState.SAVED_SIZE);
+        java.util.Arrays.fill(remoteInputs, input(GameState.NONE, false));
+        java.util.Arrays.fill(checksumTicks, -1);
+    }
+
+    // Returns the input byte for a direction (UP, NONE or DOWN) and whether the player
+    // asked to start a new match
+    public static int input(int direction, boolean start) {
+        return direction + 1 | (start ? START : 0);
+    }
+
+    // the next tick to be played
+    public long getTick() {
+        return tick;
+    }
+
+    // the last tick the other side's input is known for
+    public long getConfirmedTick() {
+        return confirmedTick;
+    }
+
+    // Returns true if the next tick should not be played yet: either the other side is
+    // too far behind to roll back to, or this side is ahead of it and should give it a
+    // tick to catch up. Counts the tick as a stall.
+    public boolean shouldWait() {
+        if (tick - confirmedTick > MAX_ROLLBACK_TICKS) {
+            stalls++;
+            return true;
+        }
+        // Both sides see the other a bit behind because of the network delay. If this
+        // side sees more of a gap than the other does, it is really ahead.
+        long advantage = getAdvantage();
+        if (advantage - remoteAdvantage >= 2 && tick - lastWaitTick >= TIME_SYNC_TICKS) {
+            lastWaitTick = tick;
+            stalls++;
+            return true;
+        }
+        return false;
+    }
+
+    // how many ticks this side seems to be ahead of the other
+    public long getAdvantage() {
+        return tick - remoteTick;
+    }
+
+    // Plays the next tick with this side's `localInput` (see input()), first playing
+    // ticks again if the other side's input turned out different than guessed.
+    // Returns the events of the tick (see GameState.step()).
+    public int advance(int localInput) {
+        long start = System.nanoTime();
+        long depth = rollBack();
+        resimulationNs.record(depth == 0 ? 0 : System.nanoTime() - start);
+        rollbackDepth.record(depth);
+        if (depth > 0)
+            rollbacks++;
+
+        localInputs[slot(tick)] = localInput;
+        if (tick > confirmedTick)
+            remoteInputs[slot(tick)] = guess();
+        int events = play(tick);
+        tick++;
+        checkConfirmedStates();
+        return events;
+    }
+
+    // Called when the other side's input for tick `first + i` is `inputs[i]`, for i
+    // from 0 to count - 1. Inputs that are already known are ignored.
+    public void receiveInputs(long first, byte[] inputs, int count) {
+        if (first > confirmedTick + 1)
+            return; // can't happen, the other side always sends from what was acknowledged
+        for (int i = 0; i < count; i++) {
+            long t = first + i;
+            if (t <= confirmedTick)
+                continue;
+            int input = inputs[i];
+            if (t < tick && remoteInputs[slot(t)] != input)
+                rollbackFrom = Math.min(rollbackFrom, t);
+            remoteInputs[slot(t)] = input;
+            confirmedTick = t;
+        }
+    }
+
+    // Called with what the other side said about itself: the tick it is on, how far
+    // ahead it thinks it is, and the checksum of its state before tick `checksumTick`.
+    public void receiveStatus(long remoteTick, long remoteAdvantage, long checksumTick, int checksum) {
+        if (remoteTick > this.remoteTick) {
+            this.remoteTick = remoteTick;
+            this.remoteAdvantage = remoteAdvantage;
+        }
+        if (checksumTick > remoteChecksumTick) {
+            remoteChecksumTick = checksumTick;
+            remoteChecksum = checksum;
+            compareChecksums();
+        }
+    }
+
+    // Writes this side's input for ticks first to getTick() - 1 into `inputs` and
+    // returns how many there were
+    public int getInputs(long first, byte[] inputs) {
+        int count = (int) Math.max(0, Math.min(tick - first, inputs.length));
+        for (int i = 0; i < count; i++)
+            inputs[i] = (byte) localInputs[slot(first + i)];
+        return count;
+    }
+
+    // the last tick a checksum was worked out for, and the checksum
+    public long getChecksumTick() {
+        return checkedTick;
+    }
+
+    public int getChecksum() {
+        return checksums[checkIndex(checkedTick)];
+    }
+
+    // Puts the state back to before the first wrongly guessed tick and plays every tick
+    // since again. Returns the number of ticks played again.
+    private long rollBack() {
+        if (rollbackFrom >= tick) {
+            rollbackFrom = Long.MAX_VALUE;
+            return 0;
+        }
+        long from = rollbackFrom;
+        rollbackFrom = Long.MAX_VALUE;
+        ByteBuffer before = saved[slot(from)];
+        before.rewind();
+        state.readFrom(before);
+        for (long t = from; t < tick; t++) {
+            if (t > confirmedTick)
+                remoteInputs[slot(t)] = guess();
+            play(t);
+        }
+        return tick - from;
+    }
+
+    // The other side's input for a tick it hasn't sent yet: the paddle keeps moving
+    // the way it was, and doesn't start a match
+    private int guess() {
+        return confirmedTick < 0 ? input(GameState.NONE, false) : remoteInputs[slot(confirmedTick)] & DIRECTION;
+    }
+
+    // saves the state and plays tick `t` with the inputs for it
+    private int play(long t) {
+        ByteBuffer before = saved[slot(t)];
+        before.clear();
+        state.writeTo(before);
+
+        int local = localInputs[slot(t)];
+        int remote = remoteInputs[slot(t)];
+        if (!state.isPlaying && ((local | remote) & START) != 0)
+            state.startNormal();
+        int left = isLeft ? local : remote;
+        int right = isLeft ? remote : local;
+        return state.step((left & DIRECTION) - 1, (right & DIRECTION) - 1);
+    }
+
+    // Works out the checksums of the states that won't change anymore (every input
+    // before them is known) and compares them with the other side's
+    private void checkConfirmedStates() {
+        // the state before tick c is final once the inputs of every tick before it are
+        // known; it was saved when tick c was played
+        long c = checkedTick + CHECKSUM_TICKS;
+        if (c > confirmedTick + 1 || c >= tick)
+            return;
+        ByteBuffer before = saved[slot(c)];
+        crc.reset();
+        crc.update(before.array(), 0, GameState.SAVED_SIZE);
+        checkedTick = c;
+        checksumTicks[checkIndex(c)] = c;
+        checksums[checkIndex(c)] = (int) crc.getValue();
+        compareChecksums();
+    }
+
+    private void compareChecksums() {
+        int i = checkIndex(remoteChecksumTick);
+        if (remoteChecksumTick > 0 && checksumTicks[i] == remoteChecksumTick && checksums[i] != remoteChecksum
+                && desyncTick < 0)
+            desyncTick = remoteChecksumTick;
+    }
+
+    private static int slot(long tick) {
+        return (int) (tick & (SLOTS - 1));
+    }
+
+    private int checkIndex(long tick) {
+        return (int) (tick / CHECKSUM_TICKS % checksumTicks.length);
+    }
+
+    // a one line summary for the stats overlay
+    public String getSummary() {
+        return "net rollback p99 " + rollbackDepth.percentile(99) + " ticks, " + String.format("%.0f us",
+                resimulationNs.percentile(99) / 1e3) + "  stalls " + stalls + (desyncTick >= 0 ? "  DESYNC" : "");
+    }
+}
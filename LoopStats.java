@@ -0,0 +1,230 @@
+/* LoopStats class measures the game loop while the game runs.
+
+It records how long every tick and every painted frame took, how late the ticks
+started (jitter), how many ticks were dropped because the game fell too far
+behind, and how many bytes every frame allocated and pixels it drew. Ticks are recorded by the game
+thread and frames by the Swing thread, into lock-free Histograms.
+
+Once per second the last second is summed up. Press F3 in the game to show the
+summary on screen. Run with -Dpong.measure=true to also print it every second,
+and with -Dpong.statsFile=<file> to write percentiles for the whole run to a file
+when the game exits.
+
+Every tick and frame is also a JFR event (pong.Tick and pong.Frame), so in a
+flight recording (java -XX:StartFlightRecording ...) hitches can be lined up with
+garbage collections and everything else the JVM records. Each thread reuses one
+event object, so recording them allocates nothing.
+*/
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+public class LoopStats {
+
+    public static final boolean ENABLED = Boolean.getBoolean("pong.measure"); // print the summary every second
+    public static final String DUMP_FILE = System.getProperty("pong.statsFile", "");
+
+    // what is recorded, as indexes into the arrays of histograms
+    private static final int TICK_TIME = 0; // nanoseconds spent in a tick
+    private static final int TICK_JITTER = 1; // nanoseconds a tick started late
+    private static final int FRAME_TIME = 2; // nanoseconds spent painting a frame
+    private static final int FRAME_ALLOCATION = 3; // bytes allocated painting a frame
+    private static final int FRAME_PIXELS = 4; // pixels drawn painting a frame
+    private static final String[] NAMES = { "tick time (ns)", "tick jitter (ns)", "frame time (ns)",
+            "frame allocation (B)", "frame pixels" };
+
+    private final Histogram[] recording = newHistograms(); // the current second
+    private final Histogram[] lastSecond = newHistograms(); // only used by the game thread
+    private final Histogram[] total = newHistograms(); // the whole run, for the file
+    private final AtomicLong droppedTicks = new AtomicLong();
+    private long totalDroppedTicks;
+
+    private final com.sun.management.OperatingSystemMXBean os;
+    private final long startNs;
+    private final long startGcs;
+    private final long startGcMs;
+    private long windowStartNs; // start of the current one second window
+    private long windowStartCpuNs; // process cpu time at the start of the window
+    private long windowStartGcs; // number of garbage collections at the start of the window
+    private long windowStartGcMs; // time spent collecting garbage at the start of the window
+
+    // Summary of the last second, shown by the overlay. Replaced (not changed) once a
+    // second, so the Swing thread can read it while the game thread makes the next.
+    private volatile String[] summary = { "measuring..." };
+
+    private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+
+    public LoopStats() {
+        os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        startNs = windowStartNs = System.nanoTime();
+        windowStartCpuNs = os.getProcessCpuTime();
+        startGcs = windowStartGcs = gcCount();
+        startGcMs = windowStartGcMs = gcMs();
+    }
+
+    private static Histogram[] newHistograms() {
+        Histogram[] histograms = new Histogram[NAMES.length];
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new Histogram();
+        return histograms;
+    }
+
+    // called from the game loop once per tick with how long the tick took, how late
+    // it was and how many ticks were dropped before it
+    public void recordTick(long tickNs, long jitterNs, long dropped) {
+        recording[TICK_TIME].record(tickNs);
+        recording[TICK_JITTER].record(jitterNs);
+        if (dropped != 0)
+            droppedTicks.addAndGet(dropped);
+        summarize();
+    }
+
+    // called from GamePanel.paint() once per frame with how long the frame took, how
+    // many bytes it allocated and how many pixels it drew
+    public void recordFrame(long frameNs, long allocatedBytes, long pixels) {
+        recording[FRAME_TIME].record(frameNs);
+        recording[FRAME_ALLOCATION].record(allocatedBytes);
+        recording[FRAME_PIXELS].record(pixels);
+    }
+
+    // total number of bytes allocated by the calling thread so far
+    public static long threadAllocatedBytes() {
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    // Returns the summary of the last second, one line per string
+    public String[] getSummary() {
+        return summary;
+    }
+
+    // sums up the last second if a second has passed since the last time
+    private void summarize() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStartNs;
+        if (elapsed < 1000000000)
+            return;
+        synchronized (this) { // not while dump() moves the histograms
+            summarize(now, elapsed);
+        }
+    }
+
+    private void summarize(long now, long elapsed) {
+        for (int i = 0; i < recording.length; i++)
+            recording[i].moveTo(lastSecond[i]);
+        long dropped = droppedTicks.getAndSet(0);
+        long cpu = os.getProcessCpuTime();
+        long gcs = gcCount();
+        long gcMs = gcMs();
+        double seconds = elapsed / 1e9;
+        double cpuMsPerSec = (cpu - windowStartCpuNs) / 1e6 / seconds;
+
+        Histogram ticks = lastSecond[TICK_TIME];
+        Histogram jitter = lastSecond[TICK_JITTER];
+        Histogram frames = lastSecond[FRAME_TIME];
+        String[] lines = {
+                String.format("fps %.0f  ticks/s %.0f  dropped %d", frames.count() / seconds, ticks.count() / seconds,
+                        dropped),
+                "frame  p50 " + duration(frames.percentile(50)) + "  p99 " + duration(frames.percentile(99)),
+                "tick   p50 " + duration(ticks.percentile(50)) + "  p99 " + duration(ticks.percentile(99)),
+                "jitter avg " + duration((long) jitter.mean()) + "  max " + duration(jitter.max()),
+                String.format("alloc %.0f B/frame  pixels %.0f/frame", lastSecond[FRAME_ALLOCATION].mean(),
+                        lastSecond[FRAME_PIXELS].mean()),
+                String.format("gc %d (%d ms)  cpu %.1f%%", gcs - windowStartGcs, gcMs - windowStartGcMs,
+                        cpuMsPerSec / 10) };
+        summary = lines;
+        if (ENABLED)
+            System.out.println(String.join("  |  ", lines));
+
+        for (int i = 0; i < lastSecond.length; i++)
+            lastSecond[i].moveTo(total[i]);
+        totalDroppedTicks += dropped;
+        windowStartNs = now;
+        windowStartCpuNs = cpu;
+        windowStartGcs = gcs;
+        windowStartGcMs = gcMs;
+    }
+
+    // Writes percentiles of everything recorded since the game started to `file`
+    // (called by a shutdown hook, so it locks out summarize() on the game thread)
+    public synchronized void dump(Path file) throws IOException {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("run time %.1f s, %d dropped ticks, %d garbage collections (%d ms)%n",
+                (System.nanoTime() - startNs) / 1e9, totalDroppedTicks + droppedTicks.get(), gcCount() - startGcs,
+                gcMs() - startGcMs));
+        out.append(String.format("%-22s %10s %12s %12s %12s %12s %12s %12s%n", "", "count", "mean", "p50", "p90",
+                "p99", "p99.9", "max"));
+        for (int i = 0; i < total.length; i++) {
+            // include what was recorded since the last summary
+            recording[i].moveTo(total[i]);
+            Histogram h = total[i];
+            out.append(String.format("%-22s %10d %12.0f %12d %12d %12d %12d %12d%n", NAMES[i], h.count(), h.mean(),
+                    h.percentile(50), h.percentile(90), h.percentile(99), h.percentile(99.9), h.max()));
+        }
+        Files.writeString(file, out);
+    }
+
+    // a duration in nanoseconds as text, in microseconds or milliseconds
+    private static String duration(long ns) {
+        return ns < 1000000 ? String.format("%.0f us", ns / 1e3) : String.format("%.2f ms", ns / 1e6);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcMs() {
+        long ms = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            ms += Math.max(0, gc.getCollectionTime());
+        return ms;
+    }
+
+    // JFR event for one tick of the game loop. Its duration is how long the tick took.
+    @Name("pong.Tick")
+    @Label("Game Tick")
+    @Category("Pong")
+    @Description("One tick of the game loop")
+    @StackTrace(false)
+    public static class TickEvent extends Event {
+        @Label("Jitter")
+        @Description("How late the tick started")
+        @Timespan(Timespan.NANOSECONDS)
+        public long jitter;
+
+        @Label("Dropped Ticks")
+        @Description("Ticks skipped before this one because the game fell too far behind")
+        public long droppedTicks;
+    }
+
+    // JFR event for one painted frame. Its duration is how long painting took.
+    @Name("pong.Frame")
+    @Label("Frame")
+    @Category("Pong")
+    @Description("One frame painted by GamePanel")
+    @StackTrace(false)
+    public static class FrameEvent extends Event {
+        @Label("Allocated")
+        @Description("Bytes allocated while painting the frame")
+        @DataAmount(DataAmount.BYTES)
+        public long allocated;
+
+        @Label("Pixels")
+        @Description("Pixels drawn while painting the frame, into the frame and its cached layers")
+        public long pixels;
+    }
+}
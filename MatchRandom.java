@@ -0,0 +1,32 @@
+/* MatchRandom class is the random number generator for one match.
+
+Every match has its own generator instead of sharing Math.random() (which every
+thread has to take turns using), and a match started with the same seed and given
+the same input plays out exactly the same way.
+
+It uses the SplitMix64 algorithm, the same one java.util.SplittableRandom uses.
+Unlike SplittableRandom its whole state is one public long, so it can be saved
+with a match and restored later.
+*/
+public class MatchRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    public long state;
+
+    public MatchRandom(long seed) {
+        state = seed;
+    }
+
+    public long nextLong() {
+        long z = (state += GOLDEN_GAMMA);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    // Returns a random number from 0 (inclusive) to 1 (exclusive), like Math.random()
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+}
@@ -0,0 +1,230 @@
+/* MatchServer runs many matches at once without any windows, e.g. on a server.
+
+Instead of one thread per match (like GamePanel has), the matches are split into
+one shard per worker thread, and every tick each worker steps all the matches of
+its shard one after another ("batch"), then sleeps until the next tick. So a
+thousand matches take a handful of threads, and a tick of a match costs about as
+much as GameState.step() itself. A match is a GameState plus the input of its two
+paddles (two ints), kept in arrays per shard. The input array is made for every
+match the shard can hold when the server starts, since setInput() writes to it
+from any thread and so it can't be swapped for a bigger one: 8 bytes per match of
+maxMatches (8 MB for a million).
+
+Each paddle of a match is either a bot (the left one a HeuristicController, the
+right one GameState's own computer paddle) or played from outside with
+setInput(), e.g. by a player whose input arrives over the network. Finished
+matches start again.
+
+A tick is "missed" if its batch was still running when the next tick was due. Run
+the main method to find out how many matches this computer can keep at 60 ticks
+per second: it keeps adding matches until too many ticks are missed.
+
+Run with: java MatchServer [workers=<cores>] [start=1000] [step=1.5] [seconds=3]
+          [maxMissed=0.1] (percent of ticks) [maxMatches=1000000]
+*/
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MatchServer {
+
+    public static final int LEFT_REMOTE = 1; // the left paddle is played with setInput()
+    public static final int RIGHT_REMOTE = 2; // the right paddle is played with setInput()
+
+    private final Shard[] shards;
+    private final int maxMatchesPerShard;
+    private int nextShard; // matches are spread over the shards in turn
+    private int matchCount;
+    private volatile boolean isRunning;
+
+    // measured by every worker, for the whole server
+    public final Histogram batchNs = new Histogram(); // nanoseconds to step a shard once
+    public final AtomicLong ticks = new AtomicLong(); // batches stepped
+    public final AtomicLong missedTicks = new AtomicLong(); // batches that ran past the next tick
+
+    // a server with `workers` threads for up to `maxMatches` matches
+    public MatchServer(int workers, int maxMatches) {
+        maxMatchesPerShard = (maxMatches + workers - 1) / workers;
+        shards = new Shard[workers];
+        for (int i = 0; i < workers; i++)
+            shards[i] = new Shard(i);
+    }
+
+    // Adds a match (which starts at the next tick of its worker) and returns its id.
+    // `remote` is LEFT_REMOTE and/or RIGHT_REMOTE, or 0 for two bots.
+    public synchronized int addMatch(long seed, int remote) {
+        Shard shard = shards[nextShard];
+        nextShard = (nextShard + 1) % shards.length;
+        int index = shard.reserved++;
+        if (index >= maxMatchesPerShard)
+            throw new IllegalStateException("too many matches");
+        shard.added.add(new Match(index, new GameState(seed), remote));
+        matchCount++;
+        return index * shards.length + shard.number;
+    }
+
+    // Sets the input (UP, NONE or DOWN) of a paddle played from outside. Can be called
+    // from any thread.
+    public void setInput(int match, boolean isRight, int input) {
+        Shard shard = shards[match % shards.length];
+        shard.inputs.set((match / shards.length) * 2 + (isRight ? 1 : 0), input);
+    }
+
+    // the number of matches added
+    public synchronized int getMatchCount() {
+        return matchCount;
+    }
+
+    public void start() {
+        isRunning = true;
+        for (Shard shard : shards) {
+            shard.thread = new Thread(shard::run, "match server " + shard.number);
+            shard.thread.setDaemon(true);
+            shard.thread.start();
+        }
+    }
+
+    public void stop() throws InterruptedException {
+        isRunning = false;
+        for (Shard shard : shards)
+            shard.thread.join();
+    }
+
+    // a match waiting to be added to its shard
+    static class Match {
+        final int index;
+        final GameState state;
+        final int remote;
+
+        Match(int index, GameState state, int remote) {
+            this.index = index;
+            this.state = state;
+            this.remote = remote;
+        }
+    }
+
+    // The matches one worker thread plays. Only that thread changes them; new matches
+    // are handed to it through `added`, and input through `inputs`.
+    class Shard {
+        final int number;
+        Thread thread;
+        volatile int count;
+        int reserved; // indexes handed out by addMatch() (only used under its lock)
+        GameState[] states = new GameState[16];
+        byte[] remote = new byte[16];
+        // made at its full size up front, so setInput() never writes to an old array
+        final AtomicIntegerArray inputs = new AtomicIntegerArray(2 * maxMatchesPerShard);
+        final ConcurrentLinkedQueue<Match> added = new ConcurrentLinkedQueue<>();
+
+        Shard(int number) {
+            this.number = number;
+        }
+
+        void run() {
+            FrameScheduler scheduler = new FrameScheduler(GameState.TICKS_PER_SECOND);
+            long periodNs = scheduler.getPeriodNs();
+            while (isRunning) {
+                long skippedBefore = scheduler.getSkippedTicks();
+                long late = scheduler.waitForNextTick();
+                long start = System.nanoTime();
+                addMatches();
+                step();
+                long ns = System.nanoTime() - start;
+
+                batchNs.record(ns);
+                ticks.incrementAndGet();
+                long missed = scheduler.getSkippedTicks() - skippedBefore + (late + ns > periodNs ? 1 : 0);
+                if (missed > 0)
+                    missedTicks.addAndGet(missed);
+            }
+        }
+
+        private void addMatches() {
+            Match match;
+            while ((match = added.poll()) != null) {
+                if (match.index >= states.length) {
+                    states = java.util.Arrays.copyOf(states, Math.max(states.length * 2, match.index + 1));
+                    remote = java.util.Arrays.copyOf(remote, states.length);
+                }
+                states[match.index] = match.state;
+                remote[match.index] = (byte) match.remote;
+                count = Math.max(count, match.index + 1);
+            }
+        }
+
+        // steps every match of the shard once
+        private void step() {
+            int n = count;
+            for (int i = 0; i < n; i++) {
+                GameState state = states[i];
+                if (state == null)
+                    continue; // added by addMatch(), but not handed over yet
+                if (!state.isPlaying)
+                    state.startNormal();
+                int left = (remote[i] & LEFT_REMOTE) != 0 ? inputs.get(2 * i)
+                        : Integer.signum(HeuristicController.velocity(state, false, state.normalError,
+                                state.normalReactionX));
+                if ((remote[i] & RIGHT_REMOTE) != 0)
+                    state.step(left, inputs.get(2 * i + 1));
+                else
+                    state.step(left);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        HashMap<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            options.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "true");
+        }
+        int workers = Integer.parseInt(options.getOrDefault("workers", "" + Runtime.getRuntime().availableProcessors()));
+        int matches = Integer.parseInt(options.getOrDefault("start", "1000"));
+        double step = Double.parseDouble(options.getOrDefault("step", "1.5"));
+        double seconds = Double.parseDouble(options.getOrDefault("seconds", "3"));
+        double maxMissed = Double.parseDouble(options.getOrDefault("maxMissed", "0.1"));
+        int maxMatches = Integer.parseInt(options.getOrDefault("maxMatches", "1000000"));
+
+        MatchServer server = new MatchServer(workers, maxMatches);
+        server.start();
+        System.out.printf("%d workers, %d ticks per second (%.1f ms per tick)%n", workers, GameState.TICKS_PER_SECOND,
+                1e3 / GameState.TICKS_PER_SECOND);
+        int sustained = 0;
+        long seed = 1;
+        boolean isWarm = false;
+        while (true) {
+            matches = Math.min(matches, maxMatches);
+            while (server.getMatchCount() < matches) {
+                // half the matches are two bots, half have a remote player on the left
+                server.addMatch(seed, seed % 2 == 0 ? LEFT_REMOTE : 0);
+                seed++;
+            }
+            Thread.sleep(500); // let the new matches be handed over
+            server.batchNs.moveTo(new Histogram());
+            server.ticks.set(0);
+            server.missedTicks.set(0);
+            Thread.sleep((long) (seconds * 1000));
+
+            Histogram batch = new Histogram();
+            server.batchNs.moveTo(batch);
+            double missedPercent = 100.0 * server.missedTicks.get() / Math.max(1, server.ticks.get());
+            if (!isWarm) {
+                isWarm = true; // the first round only warms up the JIT
+                continue;
+            }
+            System.out.printf("%,9d matches: batch p50 %6.2f ms  p99 %6.2f ms  max %6.2f ms, %.2f%% ticks missed%n",
+                    server.getMatchCount(), batch.percentile(50) / 1e6, batch.percentile(99) / 1e6,
+                    batch.max() / 1e6, missedPercent);
+            if (missedPercent > maxMissed)
+                break;
+            sustained = server.getMatchCount();
+            if (matches == maxMatches)
+                break;
+            matches = (int) (matches * step);
+        }
+        server.stop();
+        System.out.printf("%d workers keep up with %,d matches at %d ticks per second (at most %.1f%% missed)%n",
+                workers, sustained, GameState.TICKS_PER_SECOND, maxMissed);
+    }
+}
@@ -0,0 +1,317 @@
+/* MultiTable shows many matches at once in one window, e.g. for a wall of arcade
+screens: `tables` normal mode matches tiled in a grid, each scaled down to fit.
+
+Playing them each in a GameFrame would take a GamePanel per match, each with its
+own game thread and its own full size off screen image. Here one game thread steps
+every match from one FrameScheduler and hands each tick to the drawing thread
+through a FrameHandoff per table, and one render pass draws every table, scaled
+down, into one off screen image the size of the window. A table is just a few
+rectangles and two numbers, so it is drawn straight into the window image at its
+own size instead of into an image of its own, by the same code as GamePanel
+(PongBall.draw(), Paddle.draw() and GamePanel's score drawing) under a scale
+transform.
+
+The left paddle of every table is played by a bot (like in MatchServer), except
+on the table that was clicked last, which is played with the up and down arrow
+keys. The right paddle is GameState's computer paddle. Finished matches start
+again.
+
+Run with: java MultiTable [tables=16] [width=1280] [height=720]
+to show the tables. Run with:
+java -Djava.awt.headless=true MultiTable measure [width=1920] [height=1080] [start=16] [step=1.25] [seconds=2]
+to find how many tables this computer can step and draw 60 times a second: it
+keeps adding tables until the 99th percentile of a tick plus a frame (on one
+thread, drawn into an image in memory) is longer than the 16.7 ms budget.
+*/
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.HashMap;
+import javax.swing.*;
+
+public class MultiTable extends JPanel implements KeyListener {
+
+    private static final int gap = 4; // pixels between tables
+
+    public final int count;
+    public final int columns;
+    public final int rows;
+    public final int tableSize; // width and height of a table on the screen, gap included
+    private final int width, height;
+    private final double scale; // of a table on the screen
+    private final GameState[] states; // only used by the game thread
+    private final FrameHandoff[] frames;
+
+    private final InputQueue input = new InputQueue();
+    private final KeyboardController keyboard = new KeyboardController(input);
+    private volatile int playedTable = -1; // the table played with the keyboard, or -1
+
+    private VolatileImage image; // off screen image that every frame is drawn to before being shown
+    private Graphics2D graphics;
+    private final AffineTransform identity = new AffineTransform();
+    // what drawTable() draws a table with, moved to where each table has them
+    private final PongBall ball = new PongBall(0, 0);
+    private final Paddle playerPaddle = new Paddle(0, 0);
+    private final Paddle computerPaddle = new Paddle(GameState.W - Paddle.W, 0);
+    private final TextLayoutCache textLayouts = new TextLayoutCache();
+    private final TextLayoutCache.Layout[] scoreLayouts = new TextLayoutCache.Layout[GameState.WINNING_SCORE + 1];
+
+    // measured while running
+    public final Histogram tickNs = new Histogram(); // nanoseconds to step every table once
+    public final Histogram frameNs = new Histogram(); // nanoseconds to draw every table once
+
+    // `count` tables in a window of `width` by `height` pixels
+    public MultiTable(int count, int width, int height) {
+        this.count = count;
+        this.width = width;
+        this.height = height;
+        // as many columns as make the tables biggest
+        int bestColumns = 1;
+        int bestSize = 0;
+        for (int c = 1; c <= count; c++) {
+            int r = (count + c - 1) / c;
+            int size = Math.min(width / c, height / r);
+            if (size > bestSize) {
+                bestSize = size;
+                bestColumns = c;
+            }
+        }
+        columns = bestColumns;
+        rows = (count + columns - 1) / columns;
+        tableSize = bestSize;
+        scale = (double) (tableSize - gap) / GameState.W;
+
+        states = new GameState[count];
+        frames = new FrameHandoff[count];
+        for (int i = 0; i < count; i++) {
+            states[i] = new GameState(i + 1);
+            states[i].startNormal();
+            frames[i] = new FrameHandoff(states[i]);
+        }
+
+        addMouseListener(new MouseAdapter() {
+            public void mousePressed(MouseEvent e) {
+                playedTable = tableAt(e.getX(), e.getY());
+            }
+        });
+        setPreferredSize(new Dimension(width, height));
+        setFocusable(true);
+        addKeyListener(this);
+    }
+
+    // Returns the table at x, y on the screen, or -1 if there is none
+    private int tableAt(int x, int y) {
+        int column = (x - left()) / tableSize;
+        int row = (y - top()) / tableSize;
+        if (x < left() || y < top() || column >= columns || row >= rows)
+            return -1;
+        int table = row * columns + column;
+        return table < count ? table : -1;
+    }
+
+    // where the grid of tables starts, so it is in the middle of the window
+    private int left() {
+        return (width - columns * tableSize) / 2;
+    }
+
+    private int top() {
+        return (height - rows * tableSize) / 2;
+    }
+
+    // Steps every match once and publishes it for drawing. Only called by the game
+    // thread.
+    public void tick(long tickNs, long periodNs) {
+        long start = System.nanoTime();
+        int command;
+        while ((command = input.poll()) != InputQueue.EMPTY)
+            keyboard.apply(command);
+        int played = playedTable;
+        for (int i = 0; i < count; i++) {
+            GameState state = states[i];
+            boolean isStarted = !state.isPlaying;
+            if (isStarted)
+                state.startNormal();
+            int left = i == played ? Integer.signum(keyboard.velocity(state, false))
+                    : Integer.signum(HeuristicController.velocity(state, false, state.normalError,
+                            state.normalReactionX));
+            int events = state.step(left);
+            // after a point is scored the ball is put back in the middle; don't draw it
+            // flying there
+            boolean isJump = isStarted || (events & (GameState.PLAYER_SCORED | GameState.COMPUTER_SCORED)) != 0;
+            frames[i].publish(state, isJump, tickNs, periodNs);
+        }
+        this.tickNs.record(System.nanoTime() - start);
+    }
+
+    // Draws every table into `g`, which must draw to an image the size of the window
+    public void drawTables(Graphics2D g) {
+        long start = System.nanoTime();
+        g.setColor(Color.black);
+        g.fillRect(0, 0, width, height);
+        long now = System.nanoTime();
+        int played = playedTable;
+        for (int i = 0; i < count; i++) {
+            g.setTransform(identity);
+            g.translate(left() + (i % columns) * tableSize + gap / 2, top() + (i / columns) * tableSize + gap / 2);
+            g.scale(scale, scale);
+            drawTable(g, frames[i].read(), now);
+            if (i == played) {
+                g.setColor(CustomColors.emerald600);
+                g.drawRect(0, 0, GameState.W - 1, GameState.H - 1);
+                g.drawRect(1, 1, GameState.W - 3, GameState.H - 3);
+            }
+        }
+        g.setTransform(identity);
+        frameNs.record(System.nanoTime() - start);
+    }
+
+    // draws one table, at the size of the normal window (it is scaled by `g`), with
+    // the same code as GamePanel
+    private void drawTable(Graphics2D g, FrameState frame, long now) {
+        GamePanel.drawField(g);
+
+        double progress = frame.progress(now);
+        ball.setLocation(FrameState.interpolate(frame.previousBallX, frame.ballX, progress),
+                FrameState.interpolate(frame.previousBallY, frame.ballY, progress));
+        ball.draw(g);
+        playerPaddle.y = FrameState.interpolate(frame.previousPlayerY, frame.playerY, progress);
+        playerPaddle.draw(g);
+        computerPaddle.y = FrameState.interpolate(frame.previousComputerY, frame.computerY, progress);
+        computerPaddle.draw(g);
+
+        g.setColor(CustomColors.emerald400);
+        GamePanel.drawScores(g, textLayouts, scoreLayouts, frame.playerScore, frame.computerScore);
+    }
+
+    public void paint(Graphics g) {
+        // double buffered the same way as GamePanel.paint()
+        do {
+            if (image == null || image.validate(getGraphicsConfiguration()) == VolatileImage.IMAGE_INCOMPATIBLE) {
+                if (graphics != null)
+                    graphics.dispose();
+                if (image != null)
+                    image.flush();
+                image = createVolatileImage(width, height);
+                graphics = image.createGraphics();
+            }
+            drawTables(graphics);
+            g.drawImage(image, 0, 0, this);
+            Toolkit.getDefaultToolkit().sync();
+        } while (image.contentsLost());
+    }
+
+    // Starts the game thread and the thread that asks Swing to redraw the window
+    public void start(JFrame window) {
+        Thread gameThread = new Thread(() -> {
+            FrameScheduler scheduler = new FrameScheduler(GameState.TICKS_PER_SECOND);
+            scheduler.setMaxTicksBehind(GamePanel.MAX_CATCH_UP_TICKS);
+            while (true) {
+                scheduler.waitForNextTick();
+                tick(scheduler.getTickNs(), scheduler.getPeriodNs());
+            }
+        }, "tables");
+        gameThread.setDaemon(true);
+        gameThread.start();
+
+        Thread renderThread = new Thread(() -> {
+            FrameScheduler scheduler = new FrameScheduler(GameState.TICKS_PER_SECOND);
+            scheduler.setMaxTicksBehind(0); // a late frame is just drawn late, never twice
+            long nextTitle = System.nanoTime();
+            while (true) {
+                scheduler.waitForNextTick();
+                repaint();
+                // show how long the last second of frames took in the title
+                if (System.nanoTime() - nextTitle >= 0) {
+                    Histogram frames = new Histogram();
+                    Histogram ticks = new Histogram();
+                    frameNs.moveTo(frames);
+                    tickNs.moveTo(ticks);
+                    String title = String.format("Pong - %d tables, frame p99 %.2f ms, tick p99 %.2f ms", count,
+                            frames.percentile(99) / 1e6, ticks.percentile(99) / 1e6);
+                    SwingUtilities.invokeLater(() -> window.setTitle(title));
+                    nextTitle += 1000000000L;
+                }
+            }
+        }, "tables render");
+        renderThread.setDaemon(true);
+        renderThread.start();
+    }
+
+    public void keyPressed(KeyEvent e) {
+        keyboard.keyPressed(e);
+    }
+
+    public void keyReleased(KeyEvent e) {
+        keyboard.keyReleased(e);
+    }
+
+    public void keyTyped(KeyEvent e) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        HashMap<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            options.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "true");
+        }
+        boolean isMeasuring = options.containsKey("measure");
+        int width = Integer.parseInt(options.getOrDefault("width", isMeasuring ? "1920" : "1280"));
+        int height = Integer.parseInt(options.getOrDefault("height", isMeasuring ? "1080" : "720"));
+        if (isMeasuring) {
+            measure(width, height, Integer.parseInt(options.getOrDefault("start", "16")),
+                    Double.parseDouble(options.getOrDefault("step", "1.25")),
+                    Double.parseDouble(options.getOrDefault("seconds", "2")));
+            return;
+        }
+
+        int tables = Integer.parseInt(options.getOrDefault("tables", "16"));
+        MultiTable multiTable = new MultiTable(tables, width, height);
+        SwingUtilities.invokeAndWait(() -> {
+            JFrame window = new JFrame("Pong - " + tables + " tables");
+            window.add(multiTable);
+            window.setResizable(false);
+            window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            window.pack();
+            window.setVisible(true);
+            window.setLocationRelativeTo(null);
+            multiTable.start(window);
+        });
+    }
+
+    // Steps and draws more and more tables, `seconds` at each count, until a tick plus
+    // a frame no longer fits in one frame at 60 frames per second
+    static void measure(int width, int height, int tables, double step, double seconds) {
+        long budgetNs = 1000000000L / GameState.TICKS_PER_SECOND;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        System.out.printf("%dx%d window, %.1f ms per frame%n", width, height, budgetNs / 1e6);
+        int sustained = 0;
+        boolean isWarm = false;
+        while (true) {
+            MultiTable multiTable = new MultiTable(tables, width, height);
+            Histogram total = new Histogram();
+            long start = System.nanoTime();
+            long end = start + (long) (seconds * 1e9);
+            for (long now = start; now < end; now = System.nanoTime()) {
+                multiTable.tick(now, budgetNs);
+                multiTable.drawTables(g);
+                total.record(System.nanoTime() - now);
+            }
+            if (!isWarm) {
+                isWarm = true; // the first round only warms up the JIT
+                continue;
+            }
+            System.out.printf("%5d tables (%dx%d, %d px each): tick p50 %6.2f ms, frame p50 %6.2f ms, both p99 %6.2f ms%n",
+                    tables, multiTable.columns, multiTable.rows, multiTable.tableSize,
+                    multiTable.tickNs.percentile(50) / 1e6, multiTable.frameNs.percentile(50) / 1e6,
+                    total.percentile(99) / 1e6);
+            if (total.percentile(99) > budgetNs)
+                break;
+            sustained = tables;
+            tables = Math.max(tables + 1, (int) (tables * step));
+        }
+        System.out.printf("%d tables fit in %.1f ms per frame at %dx%d%n", sustained, budgetNs / 1e6, width, height);
+    }
+}
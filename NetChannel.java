@@ -0,0 +1,219 @@
+/* NetChannel connects the Lockstep of two games over UDP.
+
+It uses a non-blocking NIO DatagramChannel, so the game thread can check for
+packets once per tick without ever waiting for the network. Every tick each side
+sends one packet with all of its input the other side hasn't acknowledged yet, so
+a lost packet doesn't need to be sent again: the next one has its input too.
+
+Packets (big endian):
+  HELLO    byte type, long magic                   (sent by the joining side until WELCOME arrives)
+  WELCOME  byte type, long magic, GameState bytes   (the match both sides start from)
+  INPUTS   byte type, long sender's tick, long sender's advantage,
+           long last tick of our input the sender has (acknowledgement),
+           long checksum tick, int checksum,
+           long first tick, byte count, count bytes of input
+
+For testing on one computer, packets can be made to arrive late and get lost:
+setLatency() holds every sent packet back, setLoss() throws some away.
+
+Packets that don't come from the other side, or don't have the size their type
+says, are ignored.
+*/
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+public class NetChannel {
+
+    public static final long MAGIC = 0x504f4e474e455401L; // "PONGNET" and the version
+    public static final int HELLO = 1;
+    public static final int WELCOME = 2;
+    public static final int INPUTS = 3;
+    private static final int MAX_INPUTS = 64; // input for at most this many ticks per packet
+    private static final int INPUTS_HEADER_SIZE = 4 * 8 + 4 + 8 + 1; // an INPUTS packet after its type, without the input
+    private static final int PACKET_SIZE = 1 + 8 + Math.max(INPUTS_HEADER_SIZE + MAX_INPUTS, GameState.SAVED_SIZE);
+    private static final int DELAYED = 256; // packets that can be held back at once
+
+    private final DatagramChannel channel;
+    private SocketAddress peer; // null until the other side is known
+    private final ByteBuffer in = ByteBuffer.allocate(PACKET_SIZE);
+    private final ByteBuffer out = ByteBuffer.allocate(PACKET_SIZE);
+    private final byte[] inputs = new byte[MAX_INPUTS];
+    private long acknowledged = -1; // the last tick of our input the other side has
+    private final ByteBuffer welcome = ByteBuffer.allocate(PACKET_SIZE); // sent again if the other side missed it
+
+    // packets held back by the latency injector, oldest first
+    private long latencyNs;
+    private double loss;
+    private final MatchRandom lossRandom = new MatchRandom(1);
+    private final ByteBuffer[] delayed = new ByteBuffer[DELAYED];
+    private final long[] delayedUntil = new long[DELAYED];
+    private int delayedFirst;
+    private int delayedCount;
+    public long packetsSent;
+    public long packetsLost; // thrown away by the loss injector
+
+    // Opens a channel on `port` (0 for any free port). Give the other side's address
+    // to connect to it, or null to wait for it to send a HELLO.
+    public NetChannel(int port, SocketAddress peer) throws IOException {
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        this.peer = peer;
+        for (int i = 0; i < DELAYED; i++)
+            delayed[i] = ByteBuffer.allocate(PACKET_SIZE);
+        welcome.limit(0); // nothing to send again until host() made it
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    // Every packet sent from now on arrives `ms` milliseconds later
+    public void setLatency(double ms) {
+        latencyNs = (long) (ms * 1e6);
+    }
+
+    // From now on each packet sent is lost with probability `fraction`
+    public void setLoss(double fraction) {
+        loss = fraction;
+    }
+
+    // Waits for the other side to join and sends it `state`, which both sides start
+    // from
+    public void host(GameState state) throws IOException {
+        while (true) {
+            in.clear();
+            SocketAddress from = channel.receive(in);
+            if (from == null) {
+                FrameScheduler.pause(1000000);
+                continue;
+            }
+            in.flip();
+            if (in.remaining() >= 9 && in.get() == HELLO && in.getLong() == MAGIC) {
+                peer = from;
+                welcome.clear();
+                welcome.put((byte) WELCOME).putLong(MAGIC);
+                state.writeTo(welcome);
+                welcome.flip();
+                sendWelcome();
+                return;
+            }
+        }
+    }
+
+    // Joins the side at the address given to the constructor and makes `state` the
+    // same as the state it starts from
+    public void join(GameState state) throws IOException {
+        long lastHello = 0;
+        while (true) {
+            if (System.nanoTime() - lastHello > 100000000) {
+                out.clear();
+                out.put((byte) HELLO).putLong(MAGIC);
+                send();
+                lastHello = System.nanoTime();
+            }
+            flushDelayed();
+            in.clear();
+            SocketAddress from = channel.receive(in);
+            if (from == null) {
+                FrameScheduler.pause(1000000);
+                continue;
+            }
+            in.flip();
+            if (from.equals(peer) && in.remaining() == 9 + GameState.SAVED_SIZE && in.get() == WELCOME && in.getLong() == MAGIC) {
+                state.readFrom(in);
+                return;
+            }
+        }
+    }
+
+    private void sendWelcome() throws IOException {
+        out.clear();
+        out.put(welcome.duplicate());
+        send();
+    }
+
+    // Sends this side's input and status to the other side. Called once per tick.
+    public void sendInputs(Lockstep lockstep) throws IOException {
+        long first = acknowledged + 1;
+        int count = lockstep.getInputs(first, inputs);
+        out.clear();
+        out.put((byte) INPUTS).putLong(lockstep.getTick()).putLong(lockstep.getAdvantage())
+                .putLong(lockstep.getConfirmedTick()).putLong(lockstep.getChecksumTick())
+                .putInt(lockstep.getChecksum()).putLong(first).put((byte) count).put(inputs, 0, count);
+        send();
+    }
+
+    // Passes every packet that arrived since the last call to `lockstep`, and sends
+    // the packets the latency injector was holding back that are due. Called once per
+    // tick.
+    public void receive(Lockstep lockstep) throws IOException {
+        flushDelayed();
+        while (true) {
+            in.clear();
+            SocketAddress from = channel.receive(in);
+            if (from == null)
+                return;
+            in.flip();
+            if (!from.equals(peer) || !in.hasRemaining())
+                continue; // not from the other side: ignore it, so nobody else can send us input
+            int type = in.get();
+            if (type == HELLO && welcome.hasRemaining()) {
+                sendWelcome(); // our WELCOME was lost
+            } else if (type == INPUTS && in.remaining() >= INPUTS_HEADER_SIZE) {
+                long remoteTick = in.getLong();
+                long remoteAdvantage = in.getLong();
+                long remoteAcknowledged = in.getLong();
+                long checksumTick = in.getLong();
+                int checksum = in.getInt();
+                long first = in.getLong();
+                int count = in.get();
+                if (count < 0 || count > MAX_INPUTS || in.remaining() != count)
+                    continue; // damaged or not one of ours
+                in.get(inputs, 0, count);
+                acknowledged = Math.max(acknowledged, remoteAcknowledged);
+                lockstep.receiveInputs(first, inputs, count);
+                lockstep.receiveStatus(remoteTick, remoteAdvantage, checksumTick, checksum);
+            }
+        }
+    }
+
+    // Sends `out`, or holds it back or throws it away if the injector says so
+    private void send() throws IOException {
+        out.flip();
+        packetsSent++;
+        if (loss > 0 && lossRandom.nextDouble() < loss) {
+            packetsLost++;
+            return;
+        }
+        if (latencyNs == 0) {
+            channel.send(out, peer);
+            return;
+        }
+        if (delayedCount == DELAYED) {
+            packetsLost++; // too many held back
+            return;
+        }
+        int i = (delayedFirst + delayedCount++) % DELAYED;
+        delayed[i].clear();
+        delayed[i].put(out).flip();
+        delayedUntil[i] = System.nanoTime() + latencyNs;
+    }
+
+    // sends the held back packets that are due
+    private void flushDelayed() throws IOException {
+        long now = System.nanoTime();
+        while (delayedCount > 0 && delayedUntil[delayedFirst] - now <= 0) {
+            channel.send(delayed[delayedFirst], peer);
+            delayedFirst = (delayedFirst + 1) % DELAYED;
+            delayedCount--;
+        }
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
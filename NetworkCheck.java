@@ -0,0 +1,109 @@
+/* NetworkCheck plays a networked match between two bots on this computer.
+
+Both sides run in their own thread with their own GameState, Lockstep and
+NetChannel, talking over UDP on the loopback address exactly like two computers
+would. The latency and packet loss injectors of NetChannel make the network as
+bad as asked, and at the end each side prints how much rolling back it had to do:
+how many ticks were played again per tick and how long that took.
+
+Each side compares its state with the other's every Lockstep.CHECKSUM_TICKS
+ticks, so any desync is caught.
+
+Run with: java NetworkCheck [seconds] [latency ms] [loss %] [ticks per second]
+Exits with status 1 if the two sides ever differed.
+*/
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+public class NetworkCheck {
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 20;
+        double latencyMs = args.length > 1 ? Double.parseDouble(args[1]) : 50;
+        double lossPercent = args.length > 2 ? Double.parseDouble(args[2]) : 5;
+        int ticksPerSecond = args.length > 3 ? Integer.parseInt(args[3]) : GameState.TICKS_PER_SECOND;
+
+        NetChannel hostChannel = new NetChannel(0, null);
+        NetChannel joinChannel = new NetChannel(0, new InetSocketAddress("127.0.0.1", hostChannel.getPort()));
+        for (NetChannel channel : new NetChannel[] { hostChannel, joinChannel }) {
+            channel.setLatency(latencyMs);
+            channel.setLoss(lossPercent / 100);
+        }
+        Side host = new Side("left ", hostChannel, true, seconds, ticksPerSecond);
+        Side join = new Side("right", joinChannel, false, seconds, ticksPerSecond);
+        host.start();
+        join.start();
+        host.join();
+        join.join();
+
+        System.out.printf("%.0f ms latency, %.0f%% loss, %d ticks per second%n", latencyMs, lossPercent,
+                ticksPerSecond);
+        host.print();
+        join.print();
+        boolean desync = host.lockstep.desyncTick >= 0 || join.lockstep.desyncTick >= 0;
+        System.out.println(desync ? "DESYNC DETECTED" : "no desync");
+        if (desync || host.error != null || join.error != null)
+            System.exit(1);
+    }
+
+    // one of the two games
+    static class Side extends Thread {
+        final String name;
+        final NetChannel channel;
+        final boolean isLeft;
+        final double seconds;
+        final int ticksPerSecond;
+        final GameState state = new GameState();
+        final Lockstep lockstep;
+        final HeuristicController bot = new HeuristicController(20, GameState.W / 2);
+        int matches;
+        Exception error;
+
+        Side(String name, NetChannel channel, boolean isLeft, double seconds, int ticksPerSecond) {
+            this.name = name;
+            this.channel = channel;
+            this.isLeft = isLeft;
+            this.seconds = seconds;
+            this.ticksPerSecond = ticksPerSecond;
+            lockstep = new Lockstep(state, isLeft);
+        }
+
+        public void run() {
+            try {
+                if (isLeft)
+                    channel.host(state);
+                else
+                    channel.join(state);
+                FrameScheduler scheduler = new FrameScheduler(ticksPerSecond);
+                long end = System.nanoTime() + (long) (seconds * 1e9);
+                while (System.nanoTime() < end) {
+                    scheduler.waitForNextTick();
+                    channel.receive(lockstep);
+                    if (!lockstep.shouldWait()) {
+                        // the bot plays from what this side knows, like a player would
+                        int direction = Integer.signum(bot.velocity(state, !isLeft));
+                        if ((lockstep.advance(Lockstep.input(direction, !state.isPlaying))
+                                & (GameState.PLAYER_WINS | GameState.COMPUTER_WINS)) != 0)
+                            matches++;
+                    }
+                    channel.sendInputs(lockstep);
+                }
+                channel.close();
+            } catch (IOException e) {
+                error = e;
+                e.printStackTrace();
+            }
+        }
+
+        void print() {
+            Histogram depth = lockstep.rollbackDepth;
+            Histogram ns = lockstep.resimulationNs;
+            System.out.printf("%s: %d ticks, %d matches, %d rolled back, %d stalls, %d/%d packets lost%n", name,
+                    lockstep.getTick(), matches, lockstep.rollbacks, lockstep.stalls, channel.packetsLost,
+                    channel.packetsSent);
+            System.out.printf("       rollback depth p50 %d  p99 %d  max %d ticks, resimulation p99 %.1f us  max %.1f us,"
+                    + " last checked tick %d%n", depth.percentile(50), depth.percentile(99), depth.max(),
+                    ns.percentile(99) / 1e3, ns.max() / 1e3, lockstep.getChecksumTick());
+        }
+    }
+}
@@ -0,0 +1,13 @@
+/* PaddleController is anything that can play a paddle: the keyboard, the computer
+paddle algorithms or a scripted bot.
+
+A controller looks at the match and decides how the paddle on its side should
+move. Any controller can play either side.
+*/
+public interface PaddleController {
+
+    // Returns the velocity (from -GameState.PADDLE_SPEED to GameState.PADDLE_SPEED
+    // pixels per tick) that the paddle on the right side (if isRight) or the left side
+    // should move at next.
+    int velocity(GameState state, boolean isRight);
+}
@@ -0,0 +1,215 @@
+/* PongEnv is a batch of Pong matches for training a paddle with reinforcement
+learning, like a vectorized gym environment.
+
+Each of the `count` environments is a normal mode match (one episode) where the
+agent plays the left paddle against GameState's computer paddle. step() moves
+every environment forward one tick with one action each (UP, NONE or DOWN) and
+writes what happened into arrays that are made once and reused, so stepping
+allocates nothing:
+  observations  OBSERVATION_SIZE floats per environment, each about -1 to 1:
+                ball x, ball y, ball velocity x and y, player paddle y and
+                velocity, computer paddle y and velocity
+  rewards       +1 when the agent scores, -1 when the computer scores, else 0
+  dones         true when the match ended (or ran for maxTicks); the environment
+                has then already been reset, and its observation is the first of
+                the next episode
+
+The pause before each round is skipped, since nothing moves during it.
+
+The environments are split between `threads` threads (the calling thread is one of
+them), which wait for the next step() without allocating anything either.
+
+Run with: java PongEnv [envs=4096] [threads=<cores>] [seconds=5]
+to measure how many environment steps per second this computer does.
+*/
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class PongEnv {
+
+    public static final int OBSERVATION_SIZE = 8;
+
+    public final int count;
+    public final float[] observations;
+    public final float[] rewards;
+    public final boolean[] dones;
+    public int maxTicks = 10 * 60 * GameState.TICKS_PER_SECOND; // episodes are cut off after this many steps
+
+    private final GameState[] states;
+    private final int[] ticks; // steps taken in each episode so far
+    private int[] actions; // the actions of the step being taken
+
+    // worker threads: each steps the environments of one chunk when `generation`
+    // changes, then counts down `remaining`
+    private final Thread[] workers;
+    private final Thread caller; // the thread that calls step(), woken when the workers are done
+    private volatile long generation;
+    private final AtomicInteger remaining = new AtomicInteger();
+    private volatile boolean isClosed;
+
+    public PongEnv(int count, int threads) {
+        this.count = count;
+        observations = new float[count * OBSERVATION_SIZE];
+        rewards = new float[count];
+        dones = new boolean[count];
+        states = new GameState[count];
+        ticks = new int[count];
+        for (int i = 0; i < count; i++)
+            states[i] = new GameState(i);
+        caller = Thread.currentThread();
+        workers = new Thread[Math.max(0, Math.min(threads, count) - 1)];
+        for (int w = 0; w < workers.length; w++) {
+            int chunk = w + 1;
+            workers[w] = new Thread(() -> work(chunk), "env worker " + chunk);
+            workers[w].setDaemon(true);
+            workers[w].start();
+        }
+    }
+
+    // Starts a new episode in every environment, environment i with seed `seed + i`,
+    // and writes the first observations
+    public void reset(long seed) {
+        for (int i = 0; i < count; i++) {
+            states[i].random.state = seed + i;
+            resetEpisode(i);
+            observe(i);
+            rewards[i] = 0;
+            dones[i] = false;
+        }
+    }
+
+    // Moves every environment forward one tick, environment i with actions[i] (UP,
+    // NONE or DOWN). Must be called from the thread that made this PongEnv.
+    public void step(int[] actions) {
+        this.actions = actions;
+        if (workers.length == 0) {
+            step(0, count);
+            return;
+        }
+        remaining.set(workers.length);
+        generation++; // (the volatile write also hands `actions` to the workers)
+        for (Thread worker : workers)
+            LockSupport.unpark(worker);
+        step(0, chunkEnd(0));
+        while (remaining.get() > 0)
+            LockSupport.park(this);
+    }
+
+    // Stops the worker threads
+    public void close() {
+        isClosed = true;
+        for (Thread worker : workers)
+            LockSupport.unpark(worker);
+    }
+
+    private void work(int chunk) {
+        long seen = 0;
+        while (true) {
+            while (generation == seen && !isClosed)
+                LockSupport.park(this);
+            if (isClosed)
+                return;
+            seen = generation;
+            step(chunkEnd(chunk - 1), chunkEnd(chunk));
+            if (remaining.decrementAndGet() == 0)
+                LockSupport.unpark(caller);
+        }
+    }
+
+    // the index after the last environment of chunk c
+    private int chunkEnd(int c) {
+        return (int) ((long) count * (c + 1) / (workers.length + 1));
+    }
+
+    // steps environments from to end - 1
+    private void step(int from, int end) {
+        for (int i = from; i < end; i++) {
+            GameState state = states[i];
+            int events = state.step(actions[i]);
+            state.sleepTicks = 0;
+            ticks[i]++;
+            rewards[i] = (events & GameState.PLAYER_SCORED) != 0 ? 1
+                    : (events & GameState.COMPUTER_SCORED) != 0 ? -1 : 0;
+            dones[i] = !state.isPlaying || ticks[i] >= maxTicks;
+            if (dones[i])
+                resetEpisode(i);
+            observe(i);
+        }
+    }
+
+    // starts a new match in environment i, continuing its random numbers
+    private void resetEpisode(int i) {
+        GameState state = states[i];
+        state.playerY = GameState.H / 2 - GameState.PADDLE_H / 2;
+        state.computerY = GameState.H / 2 - GameState.PADDLE_H / 2;
+        state.playerVelocity = 0;
+        state.computerVelocity = 0;
+        state.startNormal();
+        state.sleepTicks = 0;
+        ticks[i] = 0;
+    }
+
+    // writes the observation of environment i
+    private void observe(int i) {
+        GameState state = states[i];
+        int o = i * OBSERVATION_SIZE;
+        observations[o] = (float) (state.ballX / GameState.W * 2 - 1);
+        observations[o + 1] = (float) (state.ballY / GameState.H * 2 - 1);
+        observations[o + 2] = (float) (state.ballVx / GameState.BALL_SPEED);
+        observations[o + 3] = (float) (state.ballVy / GameState.BALL_SPEED);
+        observations[o + 4] = (float) state.playerY / GameState.H * 2 - 1;
+        observations[o + 5] = (float) state.playerVelocity / GameState.PADDLE_SPEED;
+        observations[o + 6] = (float) state.computerY / GameState.H * 2 - 1;
+        observations[o + 7] = (float) state.computerVelocity / GameState.PADDLE_SPEED;
+    }
+
+    public static void main(String[] args) {
+        HashMap<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            options.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "true");
+        }
+        int envs = Integer.parseInt(options.getOrDefault("envs", "4096"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "" + Runtime.getRuntime().availableProcessors()));
+        double seconds = Double.parseDouble(options.getOrDefault("seconds", "5"));
+
+        PongEnv env = new PongEnv(envs, threads);
+        env.reset(1);
+        // a random agent that keeps each action for a while, like a player would
+        int[] actions = new int[envs];
+        MatchRandom random = new MatchRandom(1);
+        long steps = 0;
+        long episodes = 0;
+        double reward = 0;
+        long start = System.nanoTime();
+        long warmUpEnd = start + 1000000000L; // the first second only warms up the JIT
+        boolean isWarm = false;
+        long end = warmUpEnd + (long) (seconds * 1e9);
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            if (!isWarm && now >= warmUpEnd) {
+                isWarm = true;
+                start = now;
+                steps = episodes = 0;
+                reward = 0;
+            }
+            for (int i = 0; i < envs; i++) {
+                long r = random.nextLong();
+                if ((r & 15) == 0)
+                    actions[i] = (int) ((r >>> 4) % 3) - 1;
+            }
+            env.step(actions);
+            steps += envs;
+            for (int i = 0; i < envs; i++) {
+                reward += env.rewards[i];
+                if (env.dones[i])
+                    episodes++;
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        env.close();
+        System.out.printf("%d envs on %d threads: %,.0f steps/s, %d episodes, mean reward %.2f per episode%n", envs,
+                threads, steps / elapsed, episodes, episodes == 0 ? 0 : reward / episodes);
+    }
+}
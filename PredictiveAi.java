@@ -0,0 +1,63 @@
+/* PredictiveAi is a computer paddle that works out where the ball is going to be
+instead of chasing where the ball is now.
+
+Whenever the ball's velocity changes (it bounced or a new round started), it
+calculates where the ball will cross the paddle, bounces off the top and bottom
+included, and then just moves the paddle there. Between bounces it does almost no
+work. It only misses if it is given a predictionError, which moves its guess by up
+to that many pixels (randomly) up or down.
+*/
+public class PredictiveAi implements PaddleController {
+
+    public double predictionError; // how many pixels the guess can be off by
+    public double targetY; // where the center of the paddle should go
+    // ball velocity when targetY was worked out
+    public double lastVx = Double.NaN;
+    public double lastVy = Double.NaN;
+
+    public PredictiveAi(double predictionError) {
+        this.predictionError = predictionError;
+    }
+
+    public int velocity(GameState state, boolean isRight) {
+        if (state.ballVx != lastVx || state.ballVy != lastVy) {
+            // The ball changed direction, so work out where it is going again.
+            lastVx = state.ballVx;
+            lastVy = state.ballVy;
+            double vx = state.ballVx;
+            double vy = state.ballVy;
+            if (isRight ? vx > 0 : vx < 0) {
+                double distance = isRight ? GameState.W - GameState.PADDLE_W - (state.ballX + GameState.BALL_D)
+                        : state.ballX - GameState.PADDLE_W;
+                double error = predictionError == 0 ? 0
+                        : (state.random.nextDouble() * 2 - 1) * predictionError;
+                targetY = crossingY(state.ballY, vx, vy, distance) + GameState.BALL_D / 2.0 + error;
+            } else {
+                // The ball is going away. Wait in the middle, where the ball is easiest to
+                // reach wherever it comes back.
+                targetY = GameState.H / 2.0;
+            }
+        }
+
+        int paddleY = isRight ? state.computerY : state.playerY;
+        double paddleCy = paddleY + GameState.PADDLE_H / 2.0; // center y coordinate of paddle
+        // stop once the paddle is as close as one step can get it
+        if (Math.abs(paddleCy - targetY) <= GameState.PADDLE_SPEED / 2.0)
+            return 0;
+        return paddleCy < targetY ? GameState.PADDLE_SPEED : -GameState.PADDLE_SPEED;
+    }
+
+    // Returns the y of the ball's top edge once it has moved `distance` pixels
+    // horizontally, starting at y and moving in direction (vx, vy), bouncing off the
+    // top and bottom.
+    // Bounces are worked out by "unfolding": pretend the field repeats above and below
+    // (mirrored each time), follow a straight line, then fold the result back in.
+    public static double crossingY(double y, double vx, double vy, double distance) {
+        double travel = Math.abs(distance / vx) * vy;
+        double range = GameState.H - GameState.BALL_D; // the ball's top edge stays in [0, range]
+        double unfolded = (y + travel) % (2 * range);
+        if (unfolded < 0)
+            unfolded += 2 * range;
+        return unfolded <= range ? unfolded : 2 * range - unfolded;
+    }
+}
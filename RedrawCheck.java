@@ -0,0 +1,98 @@
+/* RedrawCheck checks that GamePanel.draw(), which only draws the parts of the frame
+that changed, draws the same picture as drawing the whole frame, and measures how
+many pixels it saves.
+
+It plays matches of every mode with a random player (and shows the home screen and
+challenge instructions between them), drawing every tick with two panels: one
+draws only what changed, the other the whole frame every time. After every frame
+the two pictures must be exactly the same.
+
+Run with: java -Djava.awt.headless=true RedrawCheck [ticks per match=3000]
+Exits with status 1 if the pictures were ever different.
+*/
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+public class RedrawCheck {
+
+    static GameState state = new GameState(1);
+    static GamePanel changed = new GamePanel(state); // draws only what changed
+    static GamePanel whole = new GamePanel(state); // draws the whole frame
+    static BufferedImage changedImage = new BufferedImage(GameState.W, GameState.H, BufferedImage.TYPE_INT_RGB);
+    static BufferedImage wholeImage = new BufferedImage(GameState.W, GameState.H, BufferedImage.TYPE_INT_RGB);
+    static Graphics2D changedGraphics = changedImage.createGraphics();
+    static Graphics2D wholeGraphics = wholeImage.createGraphics();
+    static long differentFrames;
+
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        MatchRandom random = new MatchRandom(1);
+        String[] modes = { "normal", "challenge", "chaos" };
+        System.out.printf("%-22s %8s %16s %16s%n", "", "frames", "pixels/frame", "whole frame");
+
+        for (String mode : modes) {
+            // the home screen, then the challenge instructions
+            measure("home screen", 60, () -> {
+            });
+            changed.screen.isInstructions = whole.screen.isInstructions = true;
+            measure("instructions", 60, () -> {
+            });
+
+            changed.screen.hide();
+            whole.screen.hide();
+            if (mode.equals("normal"))
+                state.startNormal();
+            else if (mode.equals("challenge"))
+                state.startChallenge();
+            else
+                state.startChaos(GamePanel.CHAOS_BALLS);
+            int[] input = { GameState.NONE };
+            measure(mode + " mode", ticks, () -> {
+                if (!state.isPlaying)
+                    return;
+                long r = random.nextLong();
+                if ((r & 15) == 0)
+                    input[0] = (int) ((r >>> 4) % 3) - 1;
+                state.step(input[0]);
+            });
+            changed.screen.setText("Game over", "Play again", mode);
+            whole.screen.setText("Game over", "Play again", mode);
+        }
+
+        System.out.println(differentFrames == 0 ? "every frame the same" : differentFrames + " FRAMES DIFFERENT");
+        if (differentFrames != 0)
+            System.exit(1);
+    }
+
+    // Runs `tick` and draws a frame with both panels `frames` times, and prints how
+    // many pixels the panel that draws only what changed drew
+    static void measure(String name, int frames, Runnable tick) {
+        long pixels = 0;
+        long wholePixels = 0;
+        for (int i = 0; i < frames; i++) {
+            tick.run();
+            changed.frames.publish(state, false, System.nanoTime(), 0);
+            whole.frames.publish(state, false, System.nanoTime(), 0);
+            int step;
+            do {
+                // draw again if the home screen's animation moved on between the two
+                step = changed.screen.animationStep();
+                changed.draw(changedGraphics);
+                whole.redrawAll();
+                whole.draw(wholeGraphics);
+            } while (step != changed.screen.animationStep());
+            pixels += changed.framePixels;
+            wholePixels += whole.framePixels;
+            if (!Arrays.equals(pixels(changedImage), pixels(wholeImage)))
+                differentFrames++;
+        }
+        System.out.printf("%-22s %8d %16.0f %16.0f%n", name, frames, (double) pixels / frames,
+                (double) wholePixels / frames);
+    }
+
+    static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+}
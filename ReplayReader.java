@@ -0,0 +1,232 @@
+/* ReplayReader plays back a replay file written by ReplayWriter.
+
+The file is memory-mapped instead of read onto the heap, so even very long
+replays open instantly and only the parts that are played are actually read.
+Playback simulates the match again with GameState.step() using the recorded
+input. To start playing from the middle of a match, playback starts from the
+closest keyframe before that point, so at most KEYFRAME_TICKS ticks have to be
+simulated.
+
+Run with: java ReplayReader <replay file> [seek to second]
+*/
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class ReplayReader {
+
+    public final long seed;
+    public final int keyframeInterval;
+    public final long ticks; // length of the match in ticks
+    private final MappedByteBuffer data;
+    private final int firstRecord; // offset of the first record, right after the header
+    private long[] keyframeTicks = new long[16];
+    private long[] keyframeOffsets = new long[16];
+    private int keyframes;
+
+    public ReplayReader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.getLong() != ReplayWriter.MAGIC)
+            throw new IOException(file + " is not a replay file");
+        int version = data.getInt();
+        if (version != ReplayWriter.VERSION)
+            throw new IOException(file + " is replay version " + version + ", expected " + ReplayWriter.VERSION);
+        seed = data.getLong();
+        keyframeInterval = data.getInt();
+        firstRecord = data.position();
+
+        ticks = hasTrailer() ? readIndex() : scanRecords();
+        if (keyframes == 0)
+            throw new IOException(file + " ends before its first keyframe");
+    }
+
+    // true if the file was closed properly and ends with the offset of the END record
+    private boolean hasTrailer() {
+        int size = data.capacity();
+        return size >= firstRecord + 16 && data.getLong(size - 8) == ReplayWriter.MAGIC;
+    }
+
+    // Reads the keyframe index from the END record. Returns the length of the match.
+    private long readIndex() {
+        ByteBuffer in = data.duplicate();
+        in.position((int) data.getLong(data.capacity() - 16));
+        in.get(); // END tag
+        readVarint(in); // ticks since the previous record
+        long ticks = readVarint(in);
+        int count = (int) readVarint(in);
+        for (int i = 0; i < count; i++)
+            addKeyframe(readVarint(in), readVarint(in));
+        return ticks;
+    }
+
+    // Finds the keyframes by reading through every record, for files that don't end
+    // with an index (because the game stopped while recording). Returns the tick of
+    // the last complete record.
+    private long scanRecords() {
+        ByteBuffer in = data.duplicate();
+        in.position(firstRecord);
+        long tick = 0;
+        try {
+            while (in.hasRemaining()) {
+                int offset = in.position();
+                int tag = in.get();
+                long recordTick = tick + readVarint(in);
+                if (tag == ReplayWriter.END)
+                    return recordTick;
+                skipPayload(in, tag);
+                if (tag == ReplayWriter.KEYFRAME)
+                    addKeyframe(recordTick, offset);
+                tick = recordTick;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // the last record was only partly written
+        }
+        return tick;
+    }
+
+    private void addKeyframe(long tick, long offset) {
+        if (keyframes == keyframeTicks.length) {
+            keyframeTicks = java.util.Arrays.copyOf(keyframeTicks, keyframes * 2);
+            keyframeOffsets = java.util.Arrays.copyOf(keyframeOffsets, keyframes * 2);
+        }
+        keyframeTicks[keyframes] = tick;
+        keyframeOffsets[keyframes] = offset;
+        keyframes++;
+    }
+
+    public int getKeyframeCount() {
+        return keyframes;
+    }
+
+    // Returns a playback of the match that has been played up to (but not including)
+    // `tick`.
+    public Playback seek(long tick) {
+        // find the last keyframe at or before `tick`
+        int low = 0;
+        int high = keyframes - 1;
+        while (low < high) {
+            int mid = (low + high + 1) / 2;
+            if (keyframeTicks[mid] <= tick)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        Playback playback = new Playback(keyframeTicks[low], (int) keyframeOffsets[low]);
+        while (playback.tick < tick && playback.step())
+            ;
+        return playback;
+    }
+
+    // Playback is one position in the replay that can be moved forward tick by tick.
+    public class Playback {
+        public final GameState state;
+        public long tick; // number of ticks played so far
+        public int input; // the player input of the next tick
+        public boolean isDesynced; // true if playback scored differently than the recording
+        private final ByteBuffer in;
+        private long recordTick; // tick of the next record
+        private int recordTag; // tag of the next record, or 0 if there are no more
+
+        // starts playing from the keyframe at `offset`
+        Playback(long keyframeTick, int offset) {
+            in = data.duplicate();
+            in.position(offset);
+            in.get(); // KEYFRAME tag
+            readVarint(in);
+            input = in.get();
+            state = new GameState(seed);
+            state.readFrom(in);
+            tick = keyframeTick;
+            recordTick = keyframeTick;
+            readRecordStart();
+        }
+
+        // Plays the next tick. Returns false (without doing anything) at the end of
+        // the replay.
+        public boolean step() {
+            if (tick >= ticks)
+                return false;
+
+            int expectedEvents = 0;
+            while (recordTag != 0 && recordTick == tick) {
+                if (recordTag == ReplayWriter.INPUT)
+                    input = in.get();
+                else if (recordTag == ReplayWriter.EVENTS)
+                    expectedEvents = (int) readVarint(in);
+                else
+                    skipPayload(in, recordTag);
+                readRecordStart();
+            }
+
+            int events = state.step(input) & ReplayWriter.RECORDED_EVENTS;
+            if (events != expectedEvents)
+                isDesynced = true;
+            tick++;
+            return true;
+        }
+
+        private void readRecordStart() {
+            if (!in.hasRemaining()) {
+                recordTag = 0;
+                return;
+            }
+            try {
+                int tag = in.get();
+                long delta = readVarint(in);
+                recordTag = tag == ReplayWriter.END ? 0 : tag;
+                recordTick += delta;
+            } catch (BufferUnderflowException e) {
+                recordTag = 0;
+            }
+        }
+    }
+
+    private static void skipPayload(ByteBuffer in, int tag) {
+        if (tag == ReplayWriter.INPUT)
+            in.get();
+        else if (tag == ReplayWriter.EVENTS)
+            readVarint(in);
+        else if (tag == ReplayWriter.KEYFRAME)
+            in.position(in.position() + 1 + GameState.SAVED_SIZE);
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    public static void main(String[] args) throws IOException {
+        ReplayReader replay = new ReplayReader(Path.of(args[0]));
+        System.out.printf("seed %d, %d ticks (%d s), %d keyframes%n", replay.seed, replay.ticks,
+                replay.ticks / GameState.TICKS_PER_SECOND, replay.getKeyframeCount());
+
+        if (args.length > 1) {
+            long seekTick = Long.parseLong(args[1]) * GameState.TICKS_PER_SECOND;
+            long start = System.nanoTime();
+            Playback playback = replay.seek(seekTick);
+            System.out.printf("seeked to tick %d in %.2f ms: score %d-%d%n", playback.tick,
+                    (System.nanoTime() - start) / 1e6, playback.state.playerScore, playback.state.computerScore);
+        }
+
+        long start = System.nanoTime();
+        Playback playback = replay.seek(0);
+        while (playback.step())
+            ;
+        System.out.printf("played back in %.2f ms: final score %d-%d, %s%n", (System.nanoTime() - start) / 1e6,
+                playback.state.playerScore, playback.state.computerScore,
+                playback.isDesynced ? "DESYNCED from the recording" : "matches the recording");
+    }
+}
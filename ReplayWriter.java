@@ -0,0 +1,141 @@
+/* ReplayWriter records a match to a replay file as it is played.
+
+A match is completely decided by its seed and the player's input, so instead of
+saving where everything is on every tick, the file only holds the seed, the input
+(only when it changes) and the scoring events. Every KEYFRAME_TICKS ticks the
+whole GameState is saved as well, so a replay can be started from the middle
+without simulating everything before it.
+
+File format (big endian):
+  header:  magic "PONGRPL\0", int version, long seed, int keyframe interval
+  records: byte tag, varint ticks since the previous record, then
+             INPUT    byte input                   (from this tick on)
+             EVENTS   varint events                (returned by step() on this tick)
+             KEYFRAME byte input, GameState bytes  (state before this tick)
+             END      varint length of match in ticks, varint keyframe count, then
+                      (varint tick, varint file offset) for every keyframe
+  trailer: long offset of the END record, magic "PONGRPL\0"
+
+Records are only ever appended. If the game crashes before the END record is
+written, the file can still be played back; ReplayReader then finds the
+keyframes by reading through the records.
+*/
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class ReplayWriter implements Closeable {
+
+    public static final long MAGIC = 0x504f4e4752504c00L; // "PONGRPL\0"
+    public static final int VERSION = 5;
+    public static final int KEYFRAME_TICKS = 10 * GameState.TICKS_PER_SECOND;
+
+    public static final int INPUT = 1;
+    public static final int EVENTS = 2;
+    public static final int KEYFRAME = 3;
+    public static final int END = 4;
+
+    // events worth recording; bounces are not, because playback works them out again
+    public static final int RECORDED_EVENTS = GameState.PLAYER_SCORED | GameState.COMPUTER_SCORED
+            | GameState.PLAYER_WINS | GameState.COMPUTER_WINS | GameState.CHALLENGE_OVER;
+
+    private final DataOutputStream out;
+    private final GameState state;
+    private final ByteBuffer stateBytes = ByteBuffer.allocate(GameState.SAVED_SIZE);
+    private long offset; // number of bytes written so far
+    private long tick; // number of ticks recorded so far
+    private long lastRecordTick; // tick of the last record written
+    private int input; // input in effect since the last INPUT record
+    private long[] keyframeTicks = new long[16];
+    private long[] keyframeOffsets = new long[16];
+    private int keyframes;
+
+    // Starts recording `state` (a match that was just started) to `file`, which must
+    // not exist yet.
+    public ReplayWriter(Path file, GameState state) throws IOException {
+        this.state = state;
+        // never write over another replay
+        out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)));
+        out.writeLong(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(state.seed);
+        out.writeInt(KEYFRAME_TICKS);
+        offset = 8 + 4 + 8 + 4;
+        writeKeyframe();
+    }
+
+    // Called before every step() of the match with the input that is about to be used
+    public void recordInput(int input) throws IOException {
+        if (tick > 0 && tick % KEYFRAME_TICKS == 0)
+            writeKeyframe();
+        if (input != this.input) {
+            writeRecordStart(INPUT);
+            out.writeByte(input);
+            offset++;
+            this.input = input;
+        }
+    }
+
+    // Called after every step() of the match with what step() returned
+    public void recordEvents(int events) throws IOException {
+        events &= RECORDED_EVENTS;
+        if (events != 0) {
+            writeRecordStart(EVENTS);
+            writeVarint(events);
+        }
+        tick++;
+    }
+
+    // Writes the END record and the index of keyframes, and closes the file.
+    public void close() throws IOException {
+        long endOffset = offset;
+        writeRecordStart(END);
+        writeVarint(tick);
+        writeVarint(keyframes);
+        for (int i = 0; i < keyframes; i++) {
+            writeVarint(keyframeTicks[i]);
+            writeVarint(keyframeOffsets[i]);
+        }
+        out.writeLong(endOffset);
+        out.writeLong(MAGIC);
+        out.close();
+    }
+
+    private void writeKeyframe() throws IOException {
+        if (keyframes == keyframeTicks.length) {
+            keyframeTicks = java.util.Arrays.copyOf(keyframeTicks, keyframes * 2);
+            keyframeOffsets = java.util.Arrays.copyOf(keyframeOffsets, keyframes * 2);
+        }
+        keyframeTicks[keyframes] = tick;
+        keyframeOffsets[keyframes] = offset;
+        keyframes++;
+
+        writeRecordStart(KEYFRAME);
+        out.writeByte(input);
+        stateBytes.clear();
+        state.writeTo(stateBytes);
+        out.write(stateBytes.array());
+        offset += 1 + GameState.SAVED_SIZE;
+    }
+
+    private void writeRecordStart(int tag) throws IOException {
+        out.writeByte(tag);
+        offset++;
+        writeVarint(tick - lastRecordTick);
+        lastRecordTick = tick;
+    }
+
+    // Writes a number using 7 bits per byte, so small numbers only take one byte.
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+            offset++;
+        }
+        out.writeByte((int) value);
+        offset++;
+    }
+}
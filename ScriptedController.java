@@ -0,0 +1,27 @@
+/* ScriptedController is a bot that plays a fixed script instead of looking at the
+ball, e.g. to check that the other controllers beat it.
+
+The script is a list of velocities, each played for ticksPerStep ticks, repeated
+for as long as the match goes on.
+*/
+public class ScriptedController implements PaddleController {
+
+    private final int[] script;
+    private final int ticksPerStep;
+    private long tick;
+
+    public ScriptedController(int ticksPerStep, int... script) {
+        this.script = script;
+        this.ticksPerStep = ticksPerStep;
+    }
+
+    // a bot that sweeps the paddle from top to bottom and back forever
+    public static ScriptedController sweeper() {
+        int sweepTicks = (GameState.H - GameState.PADDLE_H) / GameState.PADDLE_SPEED;
+        return new ScriptedController(sweepTicks, GameState.PADDLE_SPEED, -GameState.PADDLE_SPEED);
+    }
+
+    public int velocity(GameState state, boolean isRight) {
+        return script[(int) (tick++ / ticksPerStep % script.length)];
+    }
+}
@@ -0,0 +1,144 @@
+/* Snapshot is what a spectator sees of a match on one tick: where the ball and the
+paddles are, the score and whether the match is being played.
+
+Each value is a whole number (the ball's position in 1/SUBPIXELS pixels), so it
+can be sent as the difference from the previous snapshot, which is usually a few
+pixels or nothing at all. Chaos mode balls are not included.
+
+A snapshot is written as one record (see Broadcast for how records are sent):
+  byte length of the rest of the record
+  byte flags      bit 0: KEYFRAME, bit 1 + i: value i is included
+  KEYFRAME:       varint tick, then every value as a zigzag varint
+  otherwise:      the included values as zigzag varints of the difference from
+                  the previous snapshot (the others didn't change); the tick is
+                  the previous snapshot's tick + 1
+*/
+import java.nio.ByteBuffer;
+
+public class Snapshot {
+
+    // indexes into `values`
+    public static final int BALL_X = 0;
+    public static final int BALL_Y = 1;
+    public static final int PLAYER_Y = 2;
+    public static final int COMPUTER_Y = 3;
+    public static final int PLAYER_SCORE = 4;
+    public static final int COMPUTER_SCORE = 5;
+    public static final int STATUS = 6; // PLAYING, SLEEPING and CHALLENGE combined with |
+    public static final int VALUES = 7;
+
+    public static final int PLAYING = 1;
+    public static final int SLEEPING = 2;
+    public static final int CHALLENGE = 4;
+
+    public static final int SUBPIXELS = 16; // the ball's position is sent in 1/16 pixels
+    public static final int KEYFRAME = 1;
+    public static final int MAX_SIZE = 1 + 1 + 10 + VALUES * 5; // the most bytes a record can take
+
+    public long tick = -1; // -1 until a keyframe was read
+    public final int[] values = new int[VALUES];
+
+    // Sets this snapshot to `state` on tick `tick`
+    public void copyFrom(GameState state, long tick) {
+        this.tick = tick;
+        values[BALL_X] = (int) Math.round(state.ballX * SUBPIXELS);
+        values[BALL_Y] = (int) Math.round(state.ballY * SUBPIXELS);
+        values[PLAYER_Y] = state.playerY;
+        values[COMPUTER_Y] = state.computerY;
+        values[PLAYER_SCORE] = state.playerScore;
+        values[COMPUTER_SCORE] = state.computerScore;
+        values[STATUS] = (state.isPlaying ? PLAYING : 0) | (state.isSleeping() ? SLEEPING : 0)
+                | (GameState.CHALLENGE.equals(state.mode) ? CHALLENGE : 0);
+    }
+
+    public void copyFrom(Snapshot other) {
+        tick = other.tick;
+        System.arraycopy(other.values, 0, values, 0, VALUES);
+    }
+
+    // Writes this snapshot to `out` as a record: the whole snapshot if `previous` is
+    // null, otherwise the difference from `previous` (which must be the snapshot of
+    // the tick before).
+    public void writeTo(ByteBuffer out, Snapshot previous) {
+        int start = out.position();
+        out.put((byte) 0).put((byte) 0); // length and flags, filled in below
+        int flags = 0;
+        if (previous == null) {
+            flags = KEYFRAME;
+            writeVarint(out, tick);
+            for (int i = 0; i < VALUES; i++)
+                writeVarint(out, zigzag(values[i]));
+        } else {
+            for (int i = 0; i < VALUES; i++) {
+                int difference = values[i] - previous.values[i];
+                if (difference != 0) {
+                    flags |= 2 << i;
+                    writeVarint(out, zigzag(difference));
+                }
+            }
+        }
+        out.put(start, (byte) (out.position() - start - 1));
+        out.put(start + 1, (byte) flags);
+    }
+
+    // Reads the next record from `in` into this snapshot, which must hold the snapshot
+    // of the record before it (or have a tick of -1). Returns false, reading nothing,
+    // if `in` doesn't have the whole record yet. Records other than keyframes are
+    // skipped until the first keyframe.
+    public boolean readFrom(ByteBuffer in) {
+        if (in.remaining() < 1 || in.remaining() < 1 + (in.get(in.position()) & 0xff))
+            return false;
+        int end = in.position() + 1 + (in.get() & 0xff);
+        int flags = in.get() & 0xff;
+        if ((flags & KEYFRAME) != 0) {
+            tick = readVarint(in);
+            for (int i = 0; i < VALUES; i++)
+                values[i] = unzigzag(readVarint(in));
+        } else if (tick >= 0) {
+            tick++;
+            for (int i = 0; i < VALUES; i++) {
+                if ((flags & 2 << i) != 0)
+                    values[i] += unzigzag(readVarint(in));
+            }
+        }
+        in.position(end);
+        return true;
+    }
+
+    public boolean equals(Object other) {
+        return other instanceof Snapshot && tick == ((Snapshot) other).tick
+                && java.util.Arrays.equals(values, ((Snapshot) other).values);
+    }
+
+    public int hashCode() {
+        return Long.hashCode(tick) * 31 + java.util.Arrays.hashCode(values);
+    }
+
+    // small negative numbers become small positive numbers: 0, -1, 1, -2 -> 0, 1, 2, 3
+    private static long zigzag(int value) {
+        return (value << 1 ^ value >> 31) & 0xffffffffL;
+    }
+
+    private static int unzigzag(long value) {
+        return (int) (value >>> 1) ^ -(int) (value & 1);
+    }
+
+    // Writes a number using 7 bits per byte, so small numbers only take one byte.
+    private static void writeVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+}
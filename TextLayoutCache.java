@@ -0,0 +1,121 @@
+/* TextLayoutCache class remembers how pieces of text were measured and wrapped,
+so text that doesn't change isn't measured (and re-wrapped) again every frame.
+
+A layout is keyed by the text, the font and the width available for it. A cache
+must only be used by one thread (e.g. the Swing thread).
+*/
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class TextLayoutCache {
+
+    // Layout is the result of measuring some text: the lines the text was broken
+    // into and the width of each line in pixels.
+    public static class Layout {
+        public final String[] lines;
+        public final int[] lineWidths;
+        public final int width; // width of the widest line
+        public final int height; // height of one line (from FontMetrics)
+
+        Layout(String[] lines, int[] lineWidths, int height) {
+            this.lines = lines;
+            this.lineWidths = lineWidths;
+            this.height = height;
+            int widest = 0;
+            for (int w : lineWidths)
+                widest = Math.max(widest, w);
+            this.width = widest;
+        }
+    }
+
+    // Only the keys in the map must never change: lookups reuse one probe key, so
+    // looking up a layout that was measured before allocates nothing.
+    private static class Key {
+        String text;
+        Font font;
+        int maxWidth;
+
+        Key(String text, Font font, int maxWidth) {
+            set(text, font, maxWidth);
+        }
+
+        Key set(String text, Font font, int maxWidth) {
+            this.text = text;
+            this.font = font;
+            this.maxWidth = maxWidth;
+            return this;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return maxWidth == k.maxWidth && text.equals(k.text) && font.equals(k.font);
+        }
+
+        public int hashCode() {
+            return (text.hashCode() * 31 + font.hashCode()) * 31 + maxWidth;
+        }
+    }
+
+    private final HashMap<Key, Layout> layouts = new HashMap<>();
+    private final Key probe = new Key("", null, 0); // the key layout() looks up with
+    private final HashMap<Font, FontMetrics> metrics = new HashMap<>();
+
+    // Returns the FontMetrics of the given font, measuring it only the first time.
+    public FontMetrics metrics(Graphics g, Font font) {
+        FontMetrics m = metrics.get(font);
+        if (m == null) {
+            m = g.getFontMetrics(font);
+            metrics.put(font, m);
+        }
+        return m;
+    }
+
+    // Returns the text measured as a single line.
+    public Layout layout(Graphics g, String text, Font font) {
+        return layout(g, text, font, 0);
+    }
+
+    // Returns the text broken into lines no wider than maxWidth (if maxWidth is
+    // greater than 0), measuring it only the first time.
+    public Layout layout(Graphics g, String text, Font font, int maxWidth) {
+        Layout layout = layouts.get(probe.set(text, font, maxWidth));
+        if (layout == null) {
+            layout = measure(metrics(g, font), text, maxWidth);
+            layouts.put(new Key(text, font, maxWidth), layout);
+        }
+        return layout;
+    }
+
+    // Forget every layout, e.g. because the text that is displayed changed.
+    public void clear() {
+        layouts.clear();
+    }
+
+    private static Layout measure(FontMetrics metrics, String text, int maxWidth) {
+        if (maxWidth <= 0)
+            return new Layout(new String[] { text }, new int[] { metrics.stringWidth(text) }, metrics.getHeight());
+
+        // Word wrapping: keep adding words to the current line until the next word
+        // would make it overflow.
+        ArrayList<String> lines = new ArrayList<>();
+        StringBuilder currLine = new StringBuilder();
+        for (String word : text.split(" ")) {
+            int wordWidth = metrics.stringWidth(word);
+            if (wordWidth + metrics.stringWidth(currLine.toString()) > maxWidth) {
+                lines.add(currLine.toString());
+                currLine.setLength(0);
+            }
+            currLine.append(word).append(' ');
+        }
+        lines.add(currLine.toString());
+
+        String[] lineArray = lines.toArray(new String[0]);
+        int[] widths = new int[lineArray.length];
+        for (int i = 0; i < lineArray.length; i++)
+            widths[i] = metrics.stringWidth(lineArray[i]);
+        return new Layout(lineArray, widths, metrics.getHeight());
+    }
+}
@@ -0,0 +1,159 @@
+/* Tournament plays every paddle controller against every other controller and
+ranks them.
+
+Every pair plays `matches` normal mode matches with each controller on each side,
+so neither gets the advantage of a side. Like BatchRunner, matches are seeded and
+spread over all CPU cores with a parallel stream, with each thread collecting its
+own results.
+
+Run with: java Tournament [matches=1000] [seed=1] [maxSeconds=300]
+*/
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+public class Tournament {
+
+    // A controller taking part. Every match gets its own controller, because
+    // controllers can remember things between ticks.
+    static class Entrant {
+        final String name;
+        final Supplier<PaddleController> create;
+
+        Entrant(String name, Supplier<PaddleController> create) {
+            this.name = name;
+            this.create = create;
+        }
+    }
+
+    static ArrayList<Entrant> entrants() {
+        ArrayList<Entrant> entrants = new ArrayList<>();
+        entrants.add(new Entrant("heuristic (normal)", () -> new HeuristicController(20, GameState.W / 2)));
+        entrants.add(new Entrant("heuristic (challenge)", () -> new HeuristicController(0, GameState.W / 3)));
+        entrants.add(new Entrant("predictive", () -> new PredictiveAi(0)));
+        entrants.add(new Entrant("predictive (60px error)", () -> new PredictiveAi(60)));
+        entrants.add(new Entrant("sweeper", ScriptedController::sweeper));
+        entrants.add(new Entrant("standing still", () -> new ScriptedController(1, 0)));
+        return entrants;
+    }
+
+    // Results of the tournament. wins[a][b] is how many times entrant a beat entrant b.
+    static class Results {
+        final long[][] wins;
+        final long[][] draws; // matches stopped at the time limit
+        long ticks;
+
+        Results(int entrants) {
+            wins = new long[entrants][entrants];
+            draws = new long[entrants][entrants];
+        }
+
+        void merge(Results other) {
+            for (int a = 0; a < wins.length; a++) {
+                for (int b = 0; b < wins.length; b++) {
+                    wins[a][b] += other.wins[a][b];
+                    draws[a][b] += other.draws[a][b];
+                }
+            }
+            ticks += other.ticks;
+        }
+    }
+
+    public static void main(String[] args) {
+        HashMap<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            options.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "true");
+        }
+        int matches = Integer.parseInt(options.getOrDefault("matches", "1000"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        int maxTicks = Integer.parseInt(options.getOrDefault("maxSeconds", "300")) * GameState.TICKS_PER_SECOND;
+
+        ArrayList<Entrant> entrants = entrants();
+        int n = entrants.size();
+        // every ordered pair (left, right) of different entrants
+        ArrayList<int[]> pairings = new ArrayList<>();
+        for (int left = 0; left < n; left++)
+            for (int right = 0; right < n; right++)
+                if (left != right)
+                    pairings.add(new int[] { left, right });
+
+        long start = System.nanoTime();
+        int total = pairings.size() * matches;
+        Results results = IntStream.range(0, total).parallel().collect(() -> new Results(n), (r, match) -> {
+            int[] pairing = pairings.get(match / matches);
+            playMatch(seed + match, entrants.get(pairing[0]), entrants.get(pairing[1]), pairing[0], pairing[1],
+                    maxTicks, r);
+        }, Results::merge);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%,d matches on %d cores in %.2f s: %,.0f matches/s, %,.0f ticks/s%n%n", total,
+                Runtime.getRuntime().availableProcessors(), seconds, total / seconds, results.ticks / seconds);
+
+        // Rank by the share of all their matches each entrant won
+        Integer[] ranking = new Integer[n];
+        double[] winRates = new double[n];
+        for (int a = 0; a < n; a++) {
+            ranking[a] = a;
+            long won = 0;
+            for (int b = 0; b < n; b++)
+                won += results.wins[a][b];
+            winRates[a] = (double) won / (2L * (n - 1) * matches);
+        }
+        java.util.Arrays.sort(ranking, (a, b) -> Double.compare(winRates[b], winRates[a]));
+
+        System.out.println("rank  win rate  draws  controller");
+        for (int i = 0; i < n; i++) {
+            long drawn = 0;
+            for (int b = 0; b < n; b++)
+                drawn += results.draws[ranking[i]][b];
+            System.out.printf("%4d  %7.1f%%  %4.1f%%  %s%n", i + 1, 100 * winRates[ranking[i]],
+                    100.0 * drawn / (2L * (n - 1) * matches), entrants.get(ranking[i]).name);
+        }
+
+        System.out.println();
+        System.out.println("win rate of each row against each column:");
+        StringBuilder header = new StringBuilder("      ");
+        for (int i = 0; i < n; i++)
+            header.append(String.format("%7d", i + 1));
+        System.out.println(header);
+        for (int i = 0; i < n; i++) {
+            int a = ranking[i];
+            StringBuilder row = new StringBuilder(String.format("%4d  ", i + 1));
+            for (int b : ranking) {
+                if (a == b)
+                    row.append("      -");
+                else
+                    row.append(String.format("%6.1f%%", 100.0 * results.wins[a][b] / (2L * matches)));
+            }
+            System.out.println(row);
+        }
+    }
+
+    // Plays one match of `left` against `right` and adds the result to `results`.
+    static void playMatch(long seed, Entrant left, Entrant right, int leftIndex, int rightIndex, int maxTicks,
+            Results results) {
+        GameState state = new GameState(seed);
+        PaddleController leftController = left.create.get();
+        PaddleController rightController = right.create.get();
+        state.startNormal();
+
+        int ticks = 0;
+        while (state.isPlaying && ticks < maxTicks) {
+            int leftInput = Integer.signum(leftController.velocity(state, false));
+            int rightInput = Integer.signum(rightController.velocity(state, true));
+            int events = state.step(leftInput, rightInput);
+            ticks++;
+            if ((events & GameState.PLAYER_WINS) != 0)
+                results.wins[leftIndex][rightIndex]++;
+            else if ((events & GameState.COMPUTER_WINS) != 0)
+                results.wins[rightIndex][leftIndex]++;
+        }
+        if (state.isPlaying) {
+            results.draws[leftIndex][rightIndex]++;
+            results.draws[rightIndex][leftIndex]++;
+        }
+        results.ticks += ticks;
+    }
+}
@@ -0,0 +1,73 @@
+/* TunnelingCheck is a stress test for the ball's collision detection.
+
+It fires the ball at speeds up to GameState.MAX_BALL_SPEED pixels per tick (80
+times normal speed) with both paddles always placed exactly where the ball will
+cross them. A paddle placed there can never miss, so any point scored means the
+ball went straight through a paddle ("tunneling"). It also checks that the ball
+never leaves the field, i.e. never tunnels through the top or bottom.
+
+Run with: java TunnelingCheck [ticks per speed]
+(add -Dpong.fixedPoint=true to check the fixed-point physics)
+Exits with status 1 if the ball ever tunneled.
+*/
+public class TunnelingCheck {
+
+    public static void main(String[] args) {
+        int ticksPerSpeed = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        double[] speeds = { 5, 10, 25, 50, 100, 200, 300, GameState.MAX_BALL_SPEED };
+        long failures = 0;
+
+        for (double speed : speeds) {
+            long tunneled = 0;
+            long outOfField = 0;
+            long paddleHits = 0;
+            GameState state = new GameState((long) speed);
+            state.fixedPoint = Boolean.getBoolean("pong.fixedPoint");
+            state.bounceJitter = 0; // so where the ball will cross the paddle can be worked out exactly
+            state.startNormal();
+
+            for (int tick = 0; tick < ticksPerSpeed; tick++) {
+                if (!state.isPlaying)
+                    state.startNormal();
+                state.setBallSpeed(speed);
+                placePaddles(state);
+
+                int events = state.step(GameState.NONE);
+                if ((events & (GameState.PLAYER_SCORED | GameState.COMPUTER_SCORED)) != 0)
+                    tunneled++;
+                if ((events & GameState.PADDLE_HIT) != 0)
+                    paddleHits++;
+                if (state.ballX < 0 || state.ballX > GameState.W - GameState.BALL_D || state.ballY < 0
+                        || state.ballY > GameState.H - GameState.BALL_D)
+                    outOfField++;
+            }
+
+            System.out.printf("speed %5.0f px/tick: %8d paddle hits, %d tunneled through a paddle, %d left the field%n",
+                    speed, paddleHits, tunneled, outOfField);
+            failures += tunneled + outOfField;
+        }
+
+        System.out.println(failures == 0 ? "no tunneling" : "TUNNELING DETECTED");
+        if (failures != 0)
+            System.exit(1);
+    }
+
+    // Moves both paddles (and stops them) so they are centered where the ball will next
+    // cross them.
+    static void placePaddles(GameState state) {
+        double vx = state.ballVx;
+        double vy = state.ballVy;
+        int playerY = crossingY(state.ballY, vx, vy, state.ballX - GameState.PADDLE_W);
+        int computerY = crossingY(state.ballY, vx, vy, GameState.W - GameState.PADDLE_W - (state.ballX + GameState.BALL_D));
+        state.playerY = Math.max(0, Math.min(GameState.H - GameState.PADDLE_H, playerY));
+        state.computerY = Math.max(0, Math.min(GameState.H - GameState.PADDLE_H, computerY));
+        state.playerVelocity = 0;
+        state.computerVelocity = 0;
+    }
+
+    // Returns the paddle y that centers the paddle on the ball when it has moved
+    // `distance` pixels horizontally in direction (vx, vy).
+    static int crossingY(double y, double vx, double vy, double distance) {
+        return (int) (PredictiveAi.crossingY(y, vx, vy, distance) + GameState.BALL_D / 2.0 - GameState.PADDLE_H / 2.0);
+    }
+}
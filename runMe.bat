@@ -1,9 +1,45 @@
+javac BallStore.java
+javac BatchRunner.java
+javac Benchmarks.java
+javac Broadcast.java
+javac BroadcastCheck.java
 javac ChallengeInstructions.java
 javac CustomColors.java
+javac DirtyRegions.java
+javac FixedPoint.java
+javac FrameExport.java
+javac FrameHandoff.java
+javac FrameScheduler.java
+javac FrameState.java
 javac GameFrame.java
 javac GamePanel.java
+javac GameState.java
+javac HeuristicController.java
+javac Histogram.java
 javac HomeScreen.java
+javac InputQueue.java
+javac KeyboardController.java
+javac Leaderboard.java
+javac LeaderboardCheck.java
+javac Lockstep.java
+javac LoopStats.java
 javac Main.java
+javac MatchRandom.java
+javac MatchServer.java
+javac MultiTable.java
+javac NetChannel.java
+javac NetworkCheck.java
 javac Paddle.java
+javac PaddleController.java
 javac PongBall.java
-java Main
\ No newline at end of file
+javac PongEnv.java
+javac PredictiveAi.java
+javac RedrawCheck.java
+javac ReplayReader.java
+javac ReplayWriter.java
+javac ScriptedController.java
+javac Snapshot.java
+javac TextLayoutCache.java
+javac Tournament.java
+javac TunnelingCheck.java
+java Main